@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * Hands raw sensor records over to a dedicated writer thread, the way
+ * {@link AsyncRecordWriter} does for orientation records, so that the
+ * sensor callback capturing them never waits for the storage. The records
+ * are copied into a ring of preallocated records, and the writer thread
+ * writes them into the enclosed {@link RawSensorWriter} in batches.
+ */
+public class AsyncRawSensorWriter extends AsyncWriter<RawSensorRecord> {
+
+    private final RawSensorWriter writer;
+
+    private final RawSensorRecord[] slots;
+
+    private final RawSensorRecord[] batch;
+
+    private int head;
+
+    private int size;
+
+    private int batchSize;
+
+    /**
+     * Creates an asynchronous writer and starts its writer thread.
+     *
+     * @param writer the writer to hand the records to
+     * @param capacity the number of records that can be buffered
+     * @param overflowPolicy what to do when the buffer is full
+     */
+    public AsyncRawSensorWriter(RawSensorWriter writer, int capacity,
+                                OverflowPolicy overflowPolicy) {
+        super("AsyncRawSensorWriter", overflowPolicy);
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.writer = writer;
+
+        slots = new RawSensorRecord[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            slots[i] = new RawSensorRecord();
+        }
+        batch = new RawSensorRecord[Math.min(capacity, BATCH_SIZE)];
+        for (int i = 0; i < batch.length; ++i) {
+            batch[i] = new RawSensorRecord();
+        }
+
+        start();
+    }
+
+    /**
+     * Waits until all records written so far are handed to the enclosed
+     * writer, and flushes it.
+     */
+    public void flush() throws IOException {
+        requestFlush(false);
+    }
+
+    @Override
+    protected int size() {
+        return size;
+    }
+
+    @Override
+    protected int capacity() {
+        return slots.length;
+    }
+
+    @Override
+    protected void add(RawSensorRecord record) {
+        slots[(head + size) % slots.length].set(record);
+        ++size;
+    }
+
+    @Override
+    protected void removeFirst(int count) {
+        head = (head + count) % slots.length;
+        size -= count;
+    }
+
+    @Override
+    protected void takeBatch() {
+        batchSize = Math.min(size, batch.length);
+        for (int i = 0; i < batchSize; ++i) {
+            batch[i].set(slots[(head + i) % slots.length]);
+        }
+        removeFirst(batchSize);
+    }
+
+    @Override
+    protected void writeBatch() throws IOException {
+        try {
+            for (int i = 0; i < batchSize; ++i) {
+                writer.write(batch[i]);
+            }
+        } finally {
+            batchSize = 0;
+        }
+    }
+
+    @Override
+    protected void flushWriter(boolean sync) throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    protected void closeWriter() throws IOException {
+        writer.close();
+    }
+}
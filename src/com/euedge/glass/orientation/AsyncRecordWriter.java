@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A record writer that hands records over to a dedicated writer thread
+ * through a preallocated {@link RecordBuffer}, so that the thread calling
+ * {@link #write(OrientationRecord)} (typically the sensor callback) never
+ * allocates or waits for I/O. The writer thread drains the buffer in
+ * batches into the enclosed writer.
+ */
+public class AsyncRecordWriter extends AsyncWriter<OrientationRecord>
+                               implements RecordWriter {
+
+    private final RecordWriter writer;
+
+    private final RecordBuffer buffer;
+
+    private final RecordBuffer batch;
+
+    private final OrientationRecord batchRecord = new OrientationRecord();
+
+    /** The bytes written by the enclosed writer, as of the last batch. */
+    private volatile long bytesWritten;
+
+    /**
+     * Creates an asynchronous writer and starts its writer thread.
+     *
+     * @param writer the writer to hand the records to
+     * @param capacity the number of records that can be buffered
+     * @param overflowPolicy what to do when the buffer is full
+     */
+    public AsyncRecordWriter(RecordWriter writer, int capacity,
+                             OverflowPolicy overflowPolicy) {
+        super("AsyncRecordWriter", overflowPolicy);
+
+        this.writer = writer;
+
+        buffer = new RecordBuffer(capacity);
+        batch  = new RecordBuffer(Math.min(capacity, BATCH_SIZE));
+
+        start();
+    }
+
+    /**
+     * Waits until all records written so far are handed to the enclosed
+     * writer, and flushes it.
+     */
+    @Override
+    public void flush() throws IOException {
+        requestFlush(false);
+    }
+
+    /**
+     * Waits until all records written so far are handed to the enclosed
+     * writer, and syncs it.
+     */
+    @Override
+    public void sync() throws IOException {
+        requestFlush(true);
+    }
+
+    /**
+     * Gets the number of bytes written by the enclosed writer, as of the
+     * last batch written by the writer thread.
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    protected int size() {
+        return buffer.size();
+    }
+
+    @Override
+    protected int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    protected void add(OrientationRecord record) {
+        buffer.add(record);
+    }
+
+    @Override
+    protected void removeFirst(int count) {
+        buffer.removeFirst(count);
+    }
+
+    @Override
+    protected void takeBatch() {
+        int count = Math.min(buffer.size(), batch.capacity());
+        for (int i = 0; i < count; ++i) {
+            buffer.get(i, batchRecord);
+            batch.add(batchRecord);
+        }
+        buffer.removeFirst(count);
+    }
+
+    @Override
+    protected void writeBatch() throws IOException {
+        try {
+            for (int i = 0; i < batch.size(); ++i) {
+                batch.get(i, batchRecord);
+                writer.write(batchRecord);
+            }
+        } finally {
+            batch.clear();
+            bytesWritten = writer.getBytesWritten();
+        }
+    }
+
+    @Override
+    protected void flushWriter(boolean sync) throws IOException {
+        try {
+            if (sync) {
+                writer.sync();
+            } else {
+                writer.flush();
+            }
+        } finally {
+            bytesWritten = writer.getBytesWritten();
+        }
+    }
+
+    @Override
+    protected void closeWriter() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            bytesWritten = writer.getBytesWritten();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * The common part of the writers that hand records over to a dedicated
+ * writer thread through a preallocated ring, so that the thread calling
+ * {@link #write(Object)} (typically the sensor callback) never allocates or
+ * waits for I/O. Subclasses own the ring and the enclosed writer; this class
+ * does the locking, the overflow handling and the writer thread, which
+ * drains the ring in batches.
+ *
+ * @param <T> the type of the records written
+ */
+public abstract class AsyncWriter<T> {
+
+    /**
+     * What to do with a record written while the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until the writer thread makes room. */
+        BLOCK,
+
+        /** Drop the oldest buffered record to make room. */
+        DROP_OLDEST,
+
+        /** Drop the record being written. */
+        DROP_NEWEST
+    }
+
+    /** The maximum number of records taken from the buffer at once. */
+    protected static final int BATCH_SIZE = 256;
+
+    /**
+     * How long the writer thread waits for a batch to fill before it writes
+     * out the records buffered so far, in milliseconds.
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Object lock = new Object();
+
+    private boolean closed;
+
+    private boolean writerWaiting;
+
+    private boolean flushRequested;
+
+    private boolean syncRequested;
+
+    private long droppedCount;
+
+    /** The number of buffered records at which the writer thread is woken. */
+    private int signalThreshold;
+
+    private IOException failure;
+
+    private final Thread writerThread;
+
+    /**
+     * Creates an asynchronous writer. Subclasses call {@link #start()} once
+     * their buffers are allocated.
+     *
+     * @param name the name of the writer thread
+     * @param overflowPolicy what to do when the buffer is full
+     */
+    protected AsyncWriter(String name, OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+
+        writerThread = new Thread(name) {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    protected final void start() {
+        signalThreshold = Math.max(1, Math.min(capacity(), BATCH_SIZE) / 2);
+        writerThread.start();
+    }
+
+    /** Gets the number of buffered records. Called holding the lock. */
+    protected abstract int size();
+
+    /** Gets the number of records that can be buffered. */
+    protected abstract int capacity();
+
+    /** Copies a record to the end of the buffer. Called holding the lock. */
+    protected abstract void add(T record);
+
+    /** Removes the oldest records from the buffer. Called holding the lock. */
+    protected abstract void removeFirst(int count);
+
+    /**
+     * Moves up to a batch of the oldest records from the buffer into the
+     * batch. Called holding the lock.
+     */
+    protected abstract void takeBatch();
+
+    /**
+     * Writes the batch into the enclosed writer and clears it, even if the
+     * enclosed writer fails. Called by the writer thread without holding
+     * the lock.
+     */
+    protected abstract void writeBatch() throws IOException;
+
+    /** Flushes or syncs the enclosed writer. Called by the writer thread. */
+    protected abstract void flushWriter(boolean sync) throws IOException;
+
+    /** Closes the enclosed writer, once the writer thread has finished. */
+    protected abstract void closeWriter() throws IOException;
+
+    /**
+     * Gets the number of records dropped so far because the buffer was full.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * Buffers a record for the writer thread, or handles it according to
+     * the overflow policy when the buffer is full. The writer thread is only
+     * woken once half a batch is buffered, otherwise it picks the records up
+     * when its poll interval elapses.
+     */
+    public void write(T record) throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("writer is closed");
+            }
+
+            if (size() == capacity()) {
+                switch (overflowPolicy) {
+                case BLOCK:
+                    while (size() == capacity() && !closed) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            ++droppedCount;
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (closed) {
+                        // closed while waiting for room
+                        throw new IOException("writer is closed");
+                    }
+                    break;
+                case DROP_OLDEST:
+                    removeFirst(1);
+                    ++droppedCount;
+                    break;
+                case DROP_NEWEST:
+                    ++droppedCount;
+                    return;
+                }
+            }
+
+            add(record);
+            if (writerWaiting && size() >= signalThreshold) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all records written so far are handed to the enclosed
+     * writer, and flushes or syncs it.
+     *
+     * @param sync whether to sync rather than just flush the enclosed writer
+     */
+    protected void requestFlush(boolean sync) throws IOException {
+        synchronized (lock) {
+            flushRequested = true;
+            syncRequested |= sync;
+            lock.notifyAll();
+
+            while (flushRequested && writerThread.isAlive()) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            throwFailure();
+        }
+    }
+
+    /**
+     * Writes out all buffered records, stops the writer thread and closes
+     * the enclosed writer.
+     */
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            try {
+                closeWriter();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            throwFailure();
+        }
+    }
+
+    private void throwFailure() throws IOException {
+        if (failure != null) {
+            IOException e = failure;
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * The body of the writer thread: move batches of records out of the
+     * shared buffer while holding the lock, and write them without it.
+     */
+    private void drain() {
+        while (true) {
+            boolean flush;
+            boolean sync;
+            boolean done;
+
+            synchronized (lock) {
+                if (size() < signalThreshold && !closed && !flushRequested) {
+                    writerWaiting = true;
+                    try {
+                        lock.wait(POLL_INTERVAL);
+                    } catch (InterruptedException e) {
+                        // keep draining until closed
+                    }
+                    writerWaiting = false;
+                }
+                if (size() == 0 && !closed && !flushRequested) {
+                    continue;
+                }
+
+                takeBatch();
+
+                flush = flushRequested && size() == 0;
+                sync  = flush && syncRequested;
+                done  = closed && size() == 0;
+
+                // make room for producers blocked on a full buffer
+                lock.notifyAll();
+            }
+
+            try {
+                writeBatch();
+            } catch (IOException e) {
+                setFailure(e);
+            }
+
+            if (flush) {
+                try {
+                    flushWriter(sync);
+                } catch (IOException e) {
+                    setFailure(e);
+                }
+                synchronized (lock) {
+                    flushRequested = false;
+                    syncRequested  = false;
+                    lock.notifyAll();
+                }
+            }
+
+            if (done) {
+                synchronized (lock) {
+                    flushRequested = false;
+                    syncRequested  = false;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void setFailure(IOException e) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+}
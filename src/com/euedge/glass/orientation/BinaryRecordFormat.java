@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary recording format. All values are big endian.
+ *
+ * <pre>
+ * header:
+ *   int   magic            'OMBF'
+ *   short version
+ *   short header length    (bytes, including magic and version)
+ *   long  start time       (wall clock, milliseconds)
+ *   long  committed length (bytes of records following the header, or -1
+ *                           if the records extend to the end of the file;
+ *                           since version 2)
+ *
+ * records, one after the other, each starting with its type byte, with
+ * offsets in nanoseconds (in milliseconds before version 3):
+ *   'O' long offset, float heading, float pitch, float roll
+ *   'L' long offset, double latitude, double longitude, double altitude,
+ *       float bearing, float speed, float accuracy
+ *   'A' long offset, byte hasInterference
+ * </pre>
+ *
+ * Readers skip any header bytes beyond the ones they know about, so fields
+ * can be appended to the header without breaking older readers.
+ * <p>
+ * Bytes beyond the committed length are not part of the recording: a
+ * writer that preallocates the file (see {@link MappedRecordWriter}) only
+ * advances the committed length once the records before it are safely
+ * stored, so a recording cut short by a crash stays readable.
+ */
+final class BinaryRecordFormat {
+
+    static final int MAGIC = 0x4F4D4246;
+
+    static final short VERSION = 3;
+
+    /** The first version with offsets in nanoseconds. */
+    static final short VERSION_NANOSECONDS = 3;
+
+    static final short HEADER_LENGTH = 24;
+
+    /** The header length of version 1 files, without the committed length. */
+    static final short HEADER_LENGTH_V1 = 16;
+
+    /** The position of the committed length field within the header. */
+    static final int COMMITTED_LENGTH_POSITION = 16;
+
+    static final long UNKNOWN_LENGTH = -1;
+
+    static final int ORIENTATION_RECORD_LENGTH = 1 + 8 + 3 * 4;
+
+    static final int LOCATION_RECORD_LENGTH = 1 + 8 + 3 * 8 + 3 * 4;
+
+    static final int ACCURACY_RECORD_LENGTH = 1 + 8 + 1;
+
+    private BinaryRecordFormat() {
+    }
+
+    /**
+     * Encodes a record into a buffer.
+     *
+     * @param buffer the buffer to write to, with at least
+     *        LOCATION_RECORD_LENGTH bytes remaining
+     * @param record the record to encode
+     */
+    static void put(ByteBuffer buffer, OrientationRecord record) throws IOException {
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            buffer.put((byte) record.type);
+            buffer.putLong(record.offset);
+            buffer.putFloat(record.heading);
+            buffer.putFloat(record.pitch);
+            buffer.putFloat(record.roll);
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            buffer.put((byte) record.type);
+            buffer.putLong(record.offset);
+            buffer.putDouble(record.latitude);
+            buffer.putDouble(record.longitude);
+            buffer.putDouble(record.altitude);
+            buffer.putFloat(record.bearing);
+            buffer.putFloat(record.speed);
+            buffer.putFloat(record.accuracy);
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            buffer.put((byte) record.type);
+            buffer.putLong(record.offset);
+            buffer.put((byte) (record.hasInterference ? 1 : 0));
+            break;
+        default:
+            throw new IOException("unknown record type: " + record.type);
+        }
+    }
+
+    /**
+     * Decodes the next record from a buffer.
+     *
+     * @param buffer the buffer to read from
+     * @param record the record to fill
+     * @return false if the buffer does not hold a complete record
+     */
+    static boolean get(ByteBuffer buffer, OrientationRecord record) throws IOException {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+
+        int type = buffer.get(buffer.position());
+        switch (type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            if (buffer.remaining() < ORIENTATION_RECORD_LENGTH) {
+                return false;
+            }
+            buffer.get();
+            record.setOrientation(buffer.getLong(),
+                                  buffer.getFloat(),
+                                  buffer.getFloat(),
+                                  buffer.getFloat());
+            return true;
+        case OrientationRecord.TYPE_LOCATION:
+            if (buffer.remaining() < LOCATION_RECORD_LENGTH) {
+                return false;
+            }
+            buffer.get();
+            record.setLocation(buffer.getLong(),
+                               buffer.getDouble(),
+                               buffer.getDouble(),
+                               buffer.getDouble(),
+                               buffer.getFloat(),
+                               buffer.getFloat(),
+                               buffer.getFloat());
+            return true;
+        case OrientationRecord.TYPE_ACCURACY:
+            if (buffer.remaining() < ACCURACY_RECORD_LENGTH) {
+                return false;
+            }
+            buffer.get();
+            record.setAccuracy(buffer.getLong(), buffer.get() != 0);
+            return true;
+        default:
+            throw new IOException("unknown record type: " + type);
+        }
+    }
+}
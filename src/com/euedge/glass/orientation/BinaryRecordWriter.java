@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes records in the fixed width binary format described by
+ * {@link BinaryRecordFormat}.
+ */
+public class BinaryRecordWriter implements RecordWriter {
+
+    private final CountingOutputStream stream;
+
+    private DataOutputStream out;
+
+    /** The record being written, encoded by {@link BinaryRecordFormat}. */
+    private final ByteBuffer encoded =
+            ByteBuffer.allocate(BinaryRecordFormat.LOCATION_RECORD_LENGTH);
+
+    public BinaryRecordWriter(OutputStream out, long startTime) throws IOException {
+        this.stream = new CountingOutputStream(out);
+        this.out    = new DataOutputStream(new BufferedOutputStream(stream));
+
+        this.out.writeInt(BinaryRecordFormat.MAGIC);
+        this.out.writeShort(BinaryRecordFormat.VERSION);
+        this.out.writeShort(BinaryRecordFormat.HEADER_LENGTH);
+        this.out.writeLong(startTime);
+        this.out.writeLong(BinaryRecordFormat.UNKNOWN_LENGTH);
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        encoded.clear();
+        BinaryRecordFormat.put(encoded, record);
+        out.write(encoded.array(), 0, encoded.position());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        out.flush();
+        stream.sync();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return stream.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        out.close();
+    }
+}
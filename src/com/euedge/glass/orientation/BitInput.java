@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * Reads a stream of bits written by {@link BitOutput} from a byte array.
+ */
+class BitInput {
+
+    private byte[] bytes;
+
+    private int length;
+
+    private int position;
+
+    /** The bits read from the byte array but not consumed yet, right aligned. */
+    private long pending;
+
+    private int pendingBits;
+
+    void reset(byte[] bytes, int length) {
+        this.bytes  = bytes;
+        this.length = length;
+        position    = 0;
+        pending     = 0;
+        pendingBits = 0;
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param bits the number of bits to read, 0 to 64
+     * @return the value, in the lowest bits
+     */
+    long readBits(int bits) throws IOException {
+        if (bits > 32) {
+            long high = readBits(bits - 32);
+            return (high << 32) | readBits(32);
+        }
+        if (bits == 0) {
+            return 0;
+        }
+
+        while (pendingBits < bits) {
+            if (position == length) {
+                throw new IOException("unexpected end of block");
+            }
+            pending = (pending << 8) | (bytes[position++] & 0xff);
+            pendingBits += 8;
+        }
+
+        pendingBits -= bits;
+        return (pending >>> pendingBits) & (-1L >>> (64 - bits));
+    }
+
+    boolean readBit() throws IOException {
+        return readBits(1) != 0;
+    }
+}
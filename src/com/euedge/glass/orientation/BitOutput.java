@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * Collects a stream of bits into a reusable byte array, most significant
+ * bit first.
+ */
+class BitOutput {
+
+    private byte[] bytes = new byte[4096];
+
+    private int length;
+
+    /** The bits not yet stored in the byte array, right aligned. */
+    private long pending;
+
+    private int pendingBits;
+
+    void reset() {
+        length      = 0;
+        pending     = 0;
+        pendingBits = 0;
+    }
+
+    /**
+     * Writes the lowest bits of a value.
+     *
+     * @param value the value to write
+     * @param bits the number of bits to write, 0 to 64
+     */
+    void writeBits(long value, int bits) {
+        if (bits > 32) {
+            writeBits(value >>> 32, bits - 32);
+            bits = 32;
+        }
+        if (bits == 0) {
+            return;
+        }
+
+        pending = (pending << bits) | (value & (-1L >>> (64 - bits)));
+        pendingBits += bits;
+
+        while (pendingBits >= 8) {
+            pendingBits -= 8;
+            put((byte) (pending >>> pendingBits));
+        }
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Pads the last byte with zero bits.
+     *
+     * @return the number of bytes written
+     */
+    int finish() {
+        if (pendingBits > 0) {
+            put((byte) (pending << (8 - pendingBits)));
+            pendingBits = 0;
+        }
+        return length;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    private void put(byte b) {
+        if (length == bytes.length) {
+            byte[] grown = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+        bytes[length++] = b;
+    }
+}
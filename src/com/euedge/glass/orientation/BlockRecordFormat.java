@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * Layout of the block compressed recording format. All values are big
+ * endian.
+ *
+ * <pre>
+ * header:
+ *   int   magic              'OMZF'
+ *   short version
+ *   short header length      (bytes, including magic and version)
+ *   long  start time         (wall clock, milliseconds)
+ *
+ * blocks, one after the other:
+ *   int   block magic        'OMZB'
+ *   int   record count
+ *   long  first offset       (offset of the first record in the block)
+ *   int   uncompressed length
+ *   int   compressed length
+ *   int   CRC32 of the uncompressed data
+ *   bytes the records of the block in the layout of {@link BinaryRecordFormat},
+ *         compressed with {@link java.util.zip.Deflater}
+ *
+ * index, written when the recording is closed:
+ *   int   index magic        'OMZI'
+ *   int   entry count
+ *   entries, one per block:
+ *     long first offset
+ *     long file position of the block
+ *
+ * trailer:
+ *   long  file position of the index
+ *   int   trailer magic      'OMZE'
+ * </pre>
+ *
+ * All offsets are in nanoseconds, in milliseconds before version 2.
+ * <p>
+ * Every block is compressed on its own, so a reader can start decoding at
+ * any block. A recording that was not closed properly has no index, and
+ * possibly a truncated last block; readers then rebuild the index by
+ * scanning the block headers, and drop the truncated block.
+ */
+final class BlockRecordFormat {
+
+    static final int MAGIC = 0x4F4D5A46;
+
+    static final short VERSION = 2;
+
+    /** The first version with offsets in nanoseconds. */
+    static final short VERSION_NANOSECONDS = 2;
+
+    static final short HEADER_LENGTH = 16;
+
+    static final int BLOCK_MAGIC = 0x4F4D5A42;
+
+    static final int BLOCK_HEADER_LENGTH = 4 + 4 + 8 + 4 + 4 + 4;
+
+    static final int INDEX_MAGIC = 0x4F4D5A49;
+
+    static final int INDEX_ENTRY_LENGTH = 8 + 8;
+
+    static final int TRAILER_MAGIC = 0x4F4D5A45;
+
+    static final int TRAILER_LENGTH = 8 + 4;
+
+    private BlockRecordFormat() {
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads records written by {@link BlockRecordWriter}. Only the block being
+ * read is decompressed, and {@link #seek(long)} uses the block index to jump
+ * to any point of the recording, decompressing a single block.
+ */
+public class BlockRecordReader implements SeekableRecordReader {
+
+    private final RandomAccessFile file;
+
+    private final long startTime;
+
+    private final long firstBlockPosition;
+
+    /** The number of nanoseconds in the unit of the offsets in the file. */
+    private final long offsetScale;
+
+    /** The position where the blocks end, and the index (if any) starts. */
+    private long blocksEnd;
+
+    private long[] indexOffsets;
+
+    private long[] indexPositions;
+
+    private int indexSize = -1;
+
+    private final byte[] blockHeader = new byte[BlockRecordFormat.BLOCK_HEADER_LENGTH];
+
+    private final ByteBuffer blockHeaderBuffer = ByteBuffer.wrap(blockHeader);
+
+    private byte[] compressed = new byte[0];
+
+    private ByteBuffer block = ByteBuffer.allocate(0);
+
+    private final Inflater inflater = new Inflater();
+
+    private final CRC32 crc = new CRC32();
+
+    private final OrientationRecord skipped = new OrientationRecord();
+
+    private long nextBlockPosition;
+
+    private boolean ended;
+
+    public BlockRecordReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+
+        try {
+            if (this.file.readInt() != BlockRecordFormat.MAGIC) {
+                throw new IOException("not a block compressed recording");
+            }
+            short version = this.file.readShort();
+            if (version < 1 || version > BlockRecordFormat.VERSION) {
+                throw new IOException("unsupported block compressed recording version: "
+                                      + version);
+            }
+            offsetScale = version >= BlockRecordFormat.VERSION_NANOSECONDS
+                        ? 1 : OrientationRecord.NANOS_PER_MILLI;
+            int headerLength = this.file.readShort();
+            startTime = this.file.readLong();
+
+            firstBlockPosition = headerLength;
+            nextBlockPosition  = headerLength;
+            blocksEnd          = this.file.length();
+            readIndex();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the wall clock time the recording was started at.
+     *
+     * @return the start time, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) throws IOException {
+        while (!BinaryRecordFormat.get(block, record)) {
+            if (!readBlock()) {
+                return false;
+            }
+        }
+
+        record.offset *= offsetScale;
+        return true;
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        if (indexSize < 0) {
+            scanBlocks();
+        }
+
+        // find the last block starting at or before the offset
+        int low = 0;
+        int high = indexSize - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexOffsets[mid] * offsetScale <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        block.limit(0);
+        ended = false;
+        if (indexSize > 0) {
+            nextBlockPosition = indexPositions[found];
+        }
+
+        // skip the records before the offset
+        while (true) {
+            int mark = block.position();
+            if (!BinaryRecordFormat.get(block, skipped)) {
+                if (!readBlock()) {
+                    return;
+                }
+                continue;
+            }
+            if (skipped.offset * offsetScale >= offset) {
+                block.position(mark);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    /**
+     * Loads the index written at the end of a properly closed recording.
+     * Without it, the index is rebuilt on the first seek.
+     */
+    private void readIndex() throws IOException {
+        long length = file.length();
+        if (length < nextBlockPosition + BlockRecordFormat.TRAILER_LENGTH) {
+            return;
+        }
+
+        file.seek(length - BlockRecordFormat.TRAILER_LENGTH);
+        long indexPosition = file.readLong();
+        if (file.readInt() != BlockRecordFormat.TRAILER_MAGIC
+                || indexPosition < nextBlockPosition
+                || indexPosition > length - BlockRecordFormat.TRAILER_LENGTH - 8) {
+            return;
+        }
+
+        file.seek(indexPosition);
+        if (file.readInt() != BlockRecordFormat.INDEX_MAGIC) {
+            return;
+        }
+        int size = file.readInt();
+        if (size < 0 || indexPosition + 8 + (long) size * BlockRecordFormat.INDEX_ENTRY_LENGTH
+                        > length - BlockRecordFormat.TRAILER_LENGTH) {
+            return;
+        }
+
+        indexOffsets   = new long[size];
+        indexPositions = new long[size];
+        for (int i = 0; i < size; ++i) {
+            indexOffsets[i]   = file.readLong();
+            indexPositions[i] = file.readLong();
+        }
+        indexSize = size;
+        blocksEnd = indexPosition;
+    }
+
+    /**
+     * Rebuilds the index by walking the block headers, up to the first
+     * block that is incomplete.
+     */
+    private void scanBlocks() throws IOException {
+        indexOffsets   = new long[64];
+        indexPositions = new long[64];
+        indexSize      = 0;
+
+        long position = firstBlockPosition;
+        while (position + BlockRecordFormat.BLOCK_HEADER_LENGTH <= blocksEnd) {
+            file.seek(position);
+            file.readFully(blockHeader);
+            blockHeaderBuffer.clear();
+            if (blockHeaderBuffer.getInt() != BlockRecordFormat.BLOCK_MAGIC) {
+                break;
+            }
+            blockHeaderBuffer.getInt();
+            long firstOffset = blockHeaderBuffer.getLong();
+            blockHeaderBuffer.getInt();
+            int compressedLength = blockHeaderBuffer.getInt();
+            long end = position + BlockRecordFormat.BLOCK_HEADER_LENGTH + compressedLength;
+            if (compressedLength < 0 || end > blocksEnd) {
+                break;
+            }
+
+            if (indexSize == indexOffsets.length) {
+                long[] offsets = new long[indexSize * 2];
+                long[] positions = new long[indexSize * 2];
+                System.arraycopy(indexOffsets, 0, offsets, 0, indexSize);
+                System.arraycopy(indexPositions, 0, positions, 0, indexSize);
+                indexOffsets = offsets;
+                indexPositions = positions;
+            }
+            indexOffsets[indexSize]   = firstOffset;
+            indexPositions[indexSize] = position;
+            ++indexSize;
+
+            position = end;
+        }
+    }
+
+    /**
+     * Reads and decompresses the next block.
+     *
+     * @return false at the end of the recording, or if the next block is
+     *         incomplete or corrupt
+     */
+    private boolean readBlock() throws IOException {
+        if (ended || nextBlockPosition + BlockRecordFormat.BLOCK_HEADER_LENGTH > blocksEnd) {
+            ended = true;
+            return false;
+        }
+
+        file.seek(nextBlockPosition);
+        file.readFully(blockHeader);
+        blockHeaderBuffer.clear();
+        int magic            = blockHeaderBuffer.getInt();
+        blockHeaderBuffer.getInt();
+        blockHeaderBuffer.getLong();
+        int length           = blockHeaderBuffer.getInt();
+        int compressedLength = blockHeaderBuffer.getInt();
+        int checksum         = blockHeaderBuffer.getInt();
+
+        long end = nextBlockPosition + BlockRecordFormat.BLOCK_HEADER_LENGTH + compressedLength;
+        if (magic != BlockRecordFormat.BLOCK_MAGIC || length < 0 || compressedLength < 0
+                || end > blocksEnd) {
+            ended = true;
+            return false;
+        }
+
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        file.readFully(compressed, 0, compressedLength);
+        if (block.capacity() < length) {
+            block = ByteBuffer.allocate(length);
+        }
+
+        try {
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            if (inflater.inflate(block.array(), 0, length) != length) {
+                ended = true;
+                return false;
+            }
+        } catch (DataFormatException e) {
+            ended = true;
+            return false;
+        }
+
+        crc.reset();
+        crc.update(block.array(), 0, length);
+        if ((int) crc.getValue() != checksum) {
+            ended = true;
+            return false;
+        }
+
+        block.clear();
+        block.limit(length);
+        nextBlockPosition = end;
+        return true;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes records in the block compressed format described by
+ * {@link BlockRecordFormat}: every block of records is deflated on its own,
+ * and an index of the blocks is appended when the writer is closed.
+ */
+public class BlockRecordWriter implements RecordWriter {
+
+    /** The default number of records in a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+
+    private final CountingOutputStream stream;
+
+    private final DataOutputStream out;
+
+    private final int blockSize;
+
+    private final ByteBuffer block;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+    private final CRC32 crc = new CRC32();
+
+    private byte[] compressed;
+
+    private int count;
+
+    private long firstOffset;
+
+    /** The number of bytes written to the stream so far. */
+    private long position;
+
+    private long[] indexOffsets = new long[64];
+
+    private long[] indexPositions = new long[64];
+
+    private int indexSize;
+
+    public BlockRecordWriter(OutputStream out, long startTime) throws IOException {
+        this(out, startTime, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a writer, and writes the header of the recording.
+     *
+     * @param out the stream to write to
+     * @param startTime the wall clock time the recording started at
+     * @param blockSize the number of records in a block
+     */
+    public BlockRecordWriter(OutputStream out, long startTime, int blockSize)
+            throws IOException {
+        this.stream    = new CountingOutputStream(out);
+        this.out       = new DataOutputStream(new BufferedOutputStream(stream));
+        this.blockSize = blockSize;
+
+        block      = ByteBuffer.allocate(blockSize * BinaryRecordFormat.LOCATION_RECORD_LENGTH);
+        compressed = new byte[block.capacity()];
+
+        this.out.writeInt(BlockRecordFormat.MAGIC);
+        this.out.writeShort(BlockRecordFormat.VERSION);
+        this.out.writeShort(BlockRecordFormat.HEADER_LENGTH);
+        this.out.writeLong(startTime);
+        position = BlockRecordFormat.HEADER_LENGTH;
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        if (count == 0) {
+            firstOffset = record.offset;
+        }
+
+        BinaryRecordFormat.put(block, record);
+
+        if (++count == blockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the records collected so far as a (possibly short) block.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes the records collected so far as a (possibly short) block, and
+     * forces it to the storage device.
+     */
+    @Override
+    public void sync() throws IOException {
+        flush();
+        stream.sync();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return stream.getCount();
+    }
+
+    /**
+     * Writes the last block, the index and the trailer.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+
+            long indexPosition = position;
+            out.writeInt(BlockRecordFormat.INDEX_MAGIC);
+            out.writeInt(indexSize);
+            for (int i = 0; i < indexSize; ++i) {
+                out.writeLong(indexOffsets[i]);
+                out.writeLong(indexPositions[i]);
+            }
+
+            out.writeLong(indexPosition);
+            out.writeInt(BlockRecordFormat.TRAILER_MAGIC);
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        int length = block.position();
+        byte[] data = block.array();
+
+        crc.reset();
+        crc.update(data, 0, length);
+
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                byte[] grown = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, grown, 0, compressedLength);
+                compressed = grown;
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength,
+                                                 compressed.length - compressedLength);
+        }
+
+        addIndexEntry(firstOffset, position);
+
+        out.writeInt(BlockRecordFormat.BLOCK_MAGIC);
+        out.writeInt(count);
+        out.writeLong(firstOffset);
+        out.writeInt(length);
+        out.writeInt(compressedLength);
+        out.writeInt((int) crc.getValue());
+        out.write(compressed, 0, compressedLength);
+        position += BlockRecordFormat.BLOCK_HEADER_LENGTH + compressedLength;
+
+        block.clear();
+        count = 0;
+    }
+
+    private void addIndexEntry(long offset, long blockPosition) {
+        if (indexSize == indexOffsets.length) {
+            long[] offsets = new long[indexSize * 2];
+            long[] positions = new long[indexSize * 2];
+            System.arraycopy(indexOffsets, 0, offsets, 0, indexSize);
+            System.arraycopy(indexPositions, 0, positions, 0, indexSize);
+            indexOffsets = offsets;
+            indexPositions = positions;
+        }
+
+        indexOffsets[indexSize] = offset;
+        indexPositions[indexSize] = blockPosition;
+        ++indexSize;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * Reads records from a recording decoded into memory, see
+ * {@link #load(RecordReader)}. Reading neither allocates nor touches the
+ * disk, and several readers may share the same decoded recording.
+ * <p>
+ * A looping reader starts over when it reaches the end, without ever
+ * ending; the offsets of each lap are shifted to continue one update
+ * interval after the last update of the lap before, so that a replay
+ * keeps going at the recorded pace.
+ */
+public class CachedRecordReader implements SeekableRecordReader {
+
+    private final RecordBuffer records;
+
+    private final boolean looping;
+
+    /** The length of a lap, in nanoseconds. */
+    private final long period;
+
+    private int position;
+
+    private long lap;
+
+    /**
+     * Decodes a recording into memory, into a buffer of the exact size.
+     *
+     * @param reader the reader of the recording, closed when done
+     * @return the decoded records
+     */
+    public static RecordBuffer load(RecordReader reader) throws IOException {
+        RecordBuffer records = new RecordBuffer(1024);
+        OrientationRecord record = new OrientationRecord();
+        try {
+            while (reader.read(record)) {
+                if (records.isFull()) {
+                    records = copy(records, records.capacity() * 2);
+                }
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return copy(records, Math.max(1, records.size()));
+    }
+
+    private static RecordBuffer copy(RecordBuffer records, int capacity) {
+        OrientationRecord record = new OrientationRecord();
+        RecordBuffer copy = new RecordBuffer(capacity);
+        for (int i = 0; i < records.size(); ++i) {
+            records.get(i, record);
+            copy.add(record);
+        }
+        return copy;
+    }
+
+    /**
+     * Creates a reader of a decoded recording.
+     *
+     * @param records the decoded records, not to be modified while read
+     * @param looping true to start over at the end
+     */
+    public CachedRecordReader(RecordBuffer records, boolean looping) {
+        this.records = records;
+        this.looping = looping;
+
+        // a lap ends one update interval after the latest update
+        long last = 0;
+        long interval = 0;
+        for (int i = 0; i < records.size(); ++i) {
+            long offset = records.getOffset(i);
+            if (offset > last) {
+                interval = offset - last;
+                last     = offset;
+            }
+        }
+        period = records.isEmpty() ? 0
+               : last + Math.max(interval, OrientationRecord.NANOS_PER_MILLI);
+    }
+
+    /**
+     * Gets the number of times the reader started over.
+     */
+    public long getLapCount() {
+        return lap;
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) {
+        if (position == records.size()) {
+            if (!looping || position == 0) {
+                return false;
+            }
+            position = 0;
+            ++lap;
+        }
+
+        records.get(position++, record);
+        record.offset += lap * period;
+        return true;
+    }
+
+    @Override
+    public void seek(long offset) {
+        lap = 0;
+        if (looping && period > 0 && offset >= period) {
+            lap = offset / period;
+            offset -= lap * period;
+        }
+
+        int low = 0;
+        int high = records.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (records.getOffset(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        position = low;
+    }
+
+    /**
+     * Does nothing, the records stay in memory for other readers.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * Layout of the compressed columnar recording format.
+ *
+ * <pre>
+ * header:
+ *   int   magic            'OMCF'
+ *   short version
+ *   short header length    (bytes, including magic and version)
+ *   long  start time       (wall clock, milliseconds)
+ *
+ * blocks, one after the other:
+ *   int   record count
+ *   int   payload length   (bytes)
+ *   bytes payload, a bit stream of the following columns:
+ *     type          2 bits per record, see the TYPE_ constants
+ *     offset        per record, delta-of-delta encoded, in nanoseconds
+ *                   (in milliseconds before version 2)
+ *     heading       per 'O' record, XOR encoded float
+ *     pitch         per 'O' record, XOR encoded float
+ *     roll          per 'O' record, XOR encoded float
+ *     latitude      per 'L' record, XOR encoded double
+ *     longitude     per 'L' record, XOR encoded double
+ *     altitude      per 'L' record, XOR encoded double
+ *     bearing       per 'L' record, XOR encoded float
+ *     speed         per 'L' record, XOR encoded float
+ *     accuracy      per 'L' record, XOR encoded float
+ *     interference  1 bit per 'A' record
+ * </pre>
+ *
+ * The encodings follow Facebook's Gorilla time series database. The first
+ * offset of a block is stored in 64 bits, every later one as the zigzag
+ * encoded difference between its delta and the previous delta:
+ *
+ * <pre>
+ *   '0'                      the same delta as before
+ *   '10'    + 12 bits        difference below 2^12
+ *   '110'   + 20 bits        difference below 2^20
+ *   '1110'  + 28 bits        difference below 2^28
+ *   '11110' + 40 bits        difference below 2^40
+ *   '11111' + 64 bits        any other difference
+ * </pre>
+ *
+ * Version 1 files, with offsets in milliseconds, use buckets of 7, 9, 12
+ * and 32 bits instead.
+ *
+ * The first value of a float column is stored in 32 (64 for doubles) bits,
+ * every later one as the XOR with the previous value:
+ *
+ * <pre>
+ *   '0'                      the same value as before
+ *   '10' + meaningful bits   the non-zero bits of the XOR fit into the window
+ *                            of leading and trailing zeros used last time
+ *   '11' + leading zeros + meaningful bit count - 1 + meaningful bits
+ *                            a new window, the counts are 5 (6 for doubles)
+ *                            bits each
+ * </pre>
+ *
+ * Every block is encoded on its own, so a block cut short by a crash does
+ * not affect the blocks before it.
+ */
+final class ColumnarRecordFormat {
+
+    static final int MAGIC = 0x4F4D4346;
+
+    static final short VERSION = 2;
+
+    /** The first version with offsets in nanoseconds. */
+    static final short VERSION_NANOSECONDS = 2;
+
+    static final short HEADER_LENGTH = 16;
+
+    static final int TYPE_ORIENTATION = 0;
+
+    static final int TYPE_LOCATION = 1;
+
+    static final int TYPE_ACCURACY = 2;
+
+    /** The bit widths of the delta-of-delta buckets of offsets. */
+    static final int[] OFFSET_BUCKETS = { 12, 20, 28, 40 };
+
+    /** The bit widths of the delta-of-delta buckets in version 1 files. */
+    static final int[] OFFSET_BUCKETS_V1 = { 7, 9, 12, 32 };
+
+    private ColumnarRecordFormat() {
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads records written by {@link ColumnarRecordWriter}. Only one block is
+ * decoded at a time, so memory use does not depend on the length of the
+ * recording.
+ */
+public class ColumnarRecordReader implements RecordReader {
+
+    private final DataInputStream in;
+
+    private final BitInput bits = new BitInput();
+
+    private long startTime;
+
+    /** The number of nanoseconds in the unit of the offsets in the file. */
+    private final long offsetScale;
+
+    private final int[] offsetBuckets;
+
+    private byte[] payload = new byte[0];
+
+    private int[] types = new int[0];
+
+    private long[] offsets = new long[0];
+
+    private float[] headings = new float[0];
+
+    private float[] pitches = new float[0];
+
+    private float[] rolls = new float[0];
+
+    private double[] latitudes = new double[0];
+
+    private double[] longitudes = new double[0];
+
+    private double[] altitudes = new double[0];
+
+    private float[] bearings = new float[0];
+
+    private float[] speeds = new float[0];
+
+    private float[] accuracies = new float[0];
+
+    private boolean[] interferences = new boolean[0];
+
+    private int count;
+
+    private int index;
+
+    private int orientationIndex;
+
+    private int locationIndex;
+
+    private int accuracyIndex;
+
+    private int xorWidth;
+
+    private int xorFieldBits;
+
+    private boolean xorFirst;
+
+    private long xorPrevious;
+
+    private int xorLeading;
+
+    private int xorTrailing;
+
+    public ColumnarRecordReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+
+        if (this.in.readInt() != ColumnarRecordFormat.MAGIC) {
+            throw new IOException("not a columnar recording");
+        }
+        short version = this.in.readShort();
+        if (version < 1 || version > ColumnarRecordFormat.VERSION) {
+            throw new IOException("unsupported columnar recording version: " + version);
+        }
+        if (version >= ColumnarRecordFormat.VERSION_NANOSECONDS) {
+            offsetScale   = 1;
+            offsetBuckets = ColumnarRecordFormat.OFFSET_BUCKETS;
+        } else {
+            offsetScale   = OrientationRecord.NANOS_PER_MILLI;
+            offsetBuckets = ColumnarRecordFormat.OFFSET_BUCKETS_V1;
+        }
+        int headerLength = this.in.readShort();
+        startTime = this.in.readLong();
+        this.in.skipBytes(headerLength - ColumnarRecordFormat.HEADER_LENGTH);
+    }
+
+    /**
+     * Gets the wall clock time the recording was started at.
+     *
+     * @return the start time, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) throws IOException {
+        if (index == count && !readBlock()) {
+            return false;
+        }
+
+        long offset = offsets[index] * offsetScale;
+        switch (types[index]) {
+        case ColumnarRecordFormat.TYPE_ORIENTATION:
+            record.setOrientation(offset,
+                                  headings[orientationIndex],
+                                  pitches[orientationIndex],
+                                  rolls[orientationIndex]);
+            ++orientationIndex;
+            break;
+        case ColumnarRecordFormat.TYPE_LOCATION:
+            record.setLocation(offset,
+                               latitudes[locationIndex],
+                               longitudes[locationIndex],
+                               altitudes[locationIndex],
+                               bearings[locationIndex],
+                               speeds[locationIndex],
+                               accuracies[locationIndex]);
+            ++locationIndex;
+            break;
+        default:
+            record.setAccuracy(offset, interferences[accuracyIndex]);
+            ++accuracyIndex;
+        }
+        ++index;
+
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads and decodes the next block.
+     *
+     * @return false at the end of the recording, or if the last block was
+     *         cut short
+     */
+    private boolean readBlock() throws IOException {
+        int blockCount;
+        int length;
+        try {
+            blockCount = in.readInt();
+            length     = in.readInt();
+            if (blockCount <= 0 || length < 0) {
+                throw new IOException("corrupt block header");
+            }
+            if (payload.length < length) {
+                payload = new byte[length];
+            }
+            in.readFully(payload, 0, length);
+        } catch (EOFException e) {
+            return false;
+        }
+
+        decodeBlock(blockCount, length);
+        return true;
+    }
+
+    private void decodeBlock(int blockCount, int length) throws IOException {
+        ensureCapacity(blockCount);
+        bits.reset(payload, length);
+
+        int orientationCount = 0;
+        int locationCount    = 0;
+        int accuracyCount    = 0;
+        for (int i = 0; i < blockCount; ++i) {
+            types[i] = (int) bits.readBits(2);
+            switch (types[i]) {
+            case ColumnarRecordFormat.TYPE_ORIENTATION:
+                ++orientationCount;
+                break;
+            case ColumnarRecordFormat.TYPE_LOCATION:
+                ++locationCount;
+                break;
+            case ColumnarRecordFormat.TYPE_ACCURACY:
+                ++accuracyCount;
+                break;
+            default:
+                throw new IOException("unknown record type: " + types[i]);
+            }
+        }
+
+        readOffsets(blockCount);
+
+        startXorColumn(32);
+        for (int i = 0; i < orientationCount; ++i) {
+            headings[i] = Float.intBitsToFloat((int) readXor());
+        }
+        startXorColumn(32);
+        for (int i = 0; i < orientationCount; ++i) {
+            pitches[i] = Float.intBitsToFloat((int) readXor());
+        }
+        startXorColumn(32);
+        for (int i = 0; i < orientationCount; ++i) {
+            rolls[i] = Float.intBitsToFloat((int) readXor());
+        }
+
+        startXorColumn(64);
+        for (int i = 0; i < locationCount; ++i) {
+            latitudes[i] = Double.longBitsToDouble(readXor());
+        }
+        startXorColumn(64);
+        for (int i = 0; i < locationCount; ++i) {
+            longitudes[i] = Double.longBitsToDouble(readXor());
+        }
+        startXorColumn(64);
+        for (int i = 0; i < locationCount; ++i) {
+            altitudes[i] = Double.longBitsToDouble(readXor());
+        }
+        startXorColumn(32);
+        for (int i = 0; i < locationCount; ++i) {
+            bearings[i] = Float.intBitsToFloat((int) readXor());
+        }
+        startXorColumn(32);
+        for (int i = 0; i < locationCount; ++i) {
+            speeds[i] = Float.intBitsToFloat((int) readXor());
+        }
+        startXorColumn(32);
+        for (int i = 0; i < locationCount; ++i) {
+            accuracies[i] = Float.intBitsToFloat((int) readXor());
+        }
+
+        for (int i = 0; i < accuracyCount; ++i) {
+            interferences[i] = bits.readBit();
+        }
+
+        count            = blockCount;
+        index            = 0;
+        orientationIndex = 0;
+        locationIndex    = 0;
+        accuracyIndex    = 0;
+    }
+
+    private void readOffsets(int blockCount) throws IOException {
+        offsets[0] = bits.readBits(64);
+
+        long previousDelta = 0;
+        for (int i = 1; i < blockCount; ++i) {
+            long zigzag = 0;
+            if (bits.readBit()) {
+                int bucket = 0;
+                while (bucket < offsetBuckets.length && bits.readBit()) {
+                    ++bucket;
+                }
+                zigzag = bits.readBits(bucket < offsetBuckets.length
+                                       ? offsetBuckets[bucket] : 64);
+            }
+
+            long dod = (zigzag >>> 1) ^ -(zigzag & 1);
+            long delta = previousDelta + dod;
+            offsets[i] = offsets[i - 1] + delta;
+            previousDelta = delta;
+        }
+    }
+
+    private void startXorColumn(int width) {
+        xorWidth     = width;
+        xorFieldBits = width == 32 ? 5 : 6;
+        xorFirst     = true;
+        xorLeading   = -1;
+    }
+
+    private long readXor() throws IOException {
+        if (xorFirst) {
+            xorPrevious = bits.readBits(xorWidth);
+            xorFirst = false;
+            return xorPrevious;
+        }
+
+        if (!bits.readBit()) {
+            return xorPrevious;
+        }
+
+        if (bits.readBit()) {
+            xorLeading = (int) bits.readBits(xorFieldBits);
+            int meaningful = (int) bits.readBits(xorFieldBits) + 1;
+            xorTrailing = xorWidth - xorLeading - meaningful;
+        } else if (xorLeading < 0) {
+            throw new IOException("corrupt XOR column");
+        }
+
+        int meaningful = xorWidth - xorLeading - xorTrailing;
+        xorPrevious ^= bits.readBits(meaningful) << xorTrailing;
+        return xorPrevious;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (types.length >= capacity) {
+            return;
+        }
+
+        types         = new int[capacity];
+        offsets       = new long[capacity];
+        headings      = new float[capacity];
+        pitches       = new float[capacity];
+        rolls         = new float[capacity];
+        latitudes     = new double[capacity];
+        longitudes    = new double[capacity];
+        altitudes     = new double[capacity];
+        bearings      = new float[capacity];
+        speeds        = new float[capacity];
+        accuracies    = new float[capacity];
+        interferences = new boolean[capacity];
+    }
+}
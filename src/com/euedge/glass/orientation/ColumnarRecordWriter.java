@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes records in the compressed columnar format described by
+ * {@link ColumnarRecordFormat}. Records are collected into per channel
+ * columns, and encoded a block at a time.
+ */
+public class ColumnarRecordWriter implements RecordWriter {
+
+    /** The default number of records in a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final CountingOutputStream stream;
+
+    private final DataOutputStream out;
+
+    private final BitOutput bits = new BitOutput();
+
+    private final int blockSize;
+
+    private final int[] types;
+
+    private final long[] offsets;
+
+    private int count;
+
+    private final float[] headings;
+
+    private final float[] pitches;
+
+    private final float[] rolls;
+
+    private int orientationCount;
+
+    private final double[] latitudes;
+
+    private final double[] longitudes;
+
+    private final double[] altitudes;
+
+    private final float[] bearings;
+
+    private final float[] speeds;
+
+    private final float[] accuracies;
+
+    private int locationCount;
+
+    private final boolean[] interferences;
+
+    private int accuracyCount;
+
+    private int xorWidth;
+
+    private int xorFieldBits;
+
+    private boolean xorFirst;
+
+    private long xorPrevious;
+
+    private int xorLeading;
+
+    private int xorTrailing;
+
+    public ColumnarRecordWriter(OutputStream out, long startTime) throws IOException {
+        this(out, startTime, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a writer, and writes the header of the recording.
+     *
+     * @param out the stream to write to
+     * @param startTime the wall clock time the recording started at
+     * @param blockSize the number of records in a block
+     */
+    public ColumnarRecordWriter(OutputStream out, long startTime, int blockSize)
+            throws IOException {
+        this.stream    = new CountingOutputStream(out);
+        this.out       = new DataOutputStream(new BufferedOutputStream(stream));
+        this.blockSize = blockSize;
+
+        types         = new int[blockSize];
+        offsets       = new long[blockSize];
+        headings      = new float[blockSize];
+        pitches       = new float[blockSize];
+        rolls         = new float[blockSize];
+        latitudes     = new double[blockSize];
+        longitudes    = new double[blockSize];
+        altitudes     = new double[blockSize];
+        bearings      = new float[blockSize];
+        speeds        = new float[blockSize];
+        accuracies    = new float[blockSize];
+        interferences = new boolean[blockSize];
+
+        this.out.writeInt(ColumnarRecordFormat.MAGIC);
+        this.out.writeShort(ColumnarRecordFormat.VERSION);
+        this.out.writeShort(ColumnarRecordFormat.HEADER_LENGTH);
+        this.out.writeLong(startTime);
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            types[count] = ColumnarRecordFormat.TYPE_ORIENTATION;
+            headings[orientationCount] = record.heading;
+            pitches[orientationCount]  = record.pitch;
+            rolls[orientationCount]    = record.roll;
+            ++orientationCount;
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            types[count] = ColumnarRecordFormat.TYPE_LOCATION;
+            latitudes[locationCount]  = record.latitude;
+            longitudes[locationCount] = record.longitude;
+            altitudes[locationCount]  = record.altitude;
+            bearings[locationCount]   = record.bearing;
+            speeds[locationCount]     = record.speed;
+            accuracies[locationCount] = record.accuracy;
+            ++locationCount;
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            types[count] = ColumnarRecordFormat.TYPE_ACCURACY;
+            interferences[accuracyCount] = record.hasInterference;
+            ++accuracyCount;
+            break;
+        default:
+            throw new IOException("unknown record type: " + record.type);
+        }
+        offsets[count++] = record.offset;
+
+        if (count == blockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the records collected so far as a (possibly short) block.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes the records collected so far as a (possibly short) block, and
+     * forces it to the storage device.
+     */
+    @Override
+    public void sync() throws IOException {
+        flush();
+        stream.sync();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return stream.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeBlock();
+        out.flush();
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        bits.reset();
+
+        for (int i = 0; i < count; ++i) {
+            bits.writeBits(types[i], 2);
+        }
+        writeOffsets();
+
+        startXorColumn(32);
+        for (int i = 0; i < orientationCount; ++i) {
+            writeXor(Float.floatToRawIntBits(headings[i]));
+        }
+        startXorColumn(32);
+        for (int i = 0; i < orientationCount; ++i) {
+            writeXor(Float.floatToRawIntBits(pitches[i]));
+        }
+        startXorColumn(32);
+        for (int i = 0; i < orientationCount; ++i) {
+            writeXor(Float.floatToRawIntBits(rolls[i]));
+        }
+
+        startXorColumn(64);
+        for (int i = 0; i < locationCount; ++i) {
+            writeXor(Double.doubleToRawLongBits(latitudes[i]));
+        }
+        startXorColumn(64);
+        for (int i = 0; i < locationCount; ++i) {
+            writeXor(Double.doubleToRawLongBits(longitudes[i]));
+        }
+        startXorColumn(64);
+        for (int i = 0; i < locationCount; ++i) {
+            writeXor(Double.doubleToRawLongBits(altitudes[i]));
+        }
+        startXorColumn(32);
+        for (int i = 0; i < locationCount; ++i) {
+            writeXor(Float.floatToRawIntBits(bearings[i]));
+        }
+        startXorColumn(32);
+        for (int i = 0; i < locationCount; ++i) {
+            writeXor(Float.floatToRawIntBits(speeds[i]));
+        }
+        startXorColumn(32);
+        for (int i = 0; i < locationCount; ++i) {
+            writeXor(Float.floatToRawIntBits(accuracies[i]));
+        }
+
+        for (int i = 0; i < accuracyCount; ++i) {
+            bits.writeBit(interferences[i]);
+        }
+
+        int length = bits.finish();
+        out.writeInt(count);
+        out.writeInt(length);
+        out.write(bits.bytes(), 0, length);
+
+        count            = 0;
+        orientationCount = 0;
+        locationCount    = 0;
+        accuracyCount    = 0;
+    }
+
+    private void writeOffsets() {
+        bits.writeBits(offsets[0], 64);
+
+        long previousDelta = 0;
+        for (int i = 1; i < count; ++i) {
+            long delta = offsets[i] - offsets[i - 1];
+            long dod = delta - previousDelta;
+            previousDelta = delta;
+
+            long zigzag = (dod << 1) ^ (dod >> 63);
+            if (zigzag == 0) {
+                bits.writeBit(false);
+                continue;
+            }
+
+            // bucket b is tagged by b + 1 one bits and a zero, the last
+            // bucket by ones only
+            int[] buckets = ColumnarRecordFormat.OFFSET_BUCKETS;
+            int bucket = 0;
+            while (bucket < buckets.length
+                    && (zigzag < 0 || zigzag >= (1L << buckets[bucket]))) {
+                ++bucket;
+            }
+            if (bucket < buckets.length) {
+                bits.writeBits((1L << (bucket + 2)) - 2, bucket + 2);
+                bits.writeBits(zigzag, buckets[bucket]);
+            } else {
+                bits.writeBits((1L << (bucket + 1)) - 1, bucket + 1);
+                bits.writeBits(zigzag, 64);
+            }
+        }
+    }
+
+    private void startXorColumn(int width) {
+        xorWidth     = width;
+        xorFieldBits = width == 32 ? 5 : 6;
+        xorFirst     = true;
+        xorLeading   = -1;
+    }
+
+    private void writeXor(long value) {
+        if (xorWidth == 32) {
+            value &= 0xffffffffL;
+        }
+
+        if (xorFirst) {
+            bits.writeBits(value, xorWidth);
+            xorPrevious = value;
+            xorFirst = false;
+            return;
+        }
+
+        long xor = value ^ xorPrevious;
+        xorPrevious = value;
+
+        if (xor == 0) {
+            bits.writeBit(false);
+            return;
+        }
+        bits.writeBit(true);
+
+        int leading  = Long.numberOfLeadingZeros(xor) - (64 - xorWidth);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        leading = Math.min(leading, (1 << xorFieldBits) - 1);
+
+        if (xorLeading >= 0 && leading >= xorLeading && trailing >= xorTrailing) {
+            bits.writeBit(false);
+            bits.writeBits(xor >>> xorTrailing, xorWidth - xorLeading - xorTrailing);
+        } else {
+            int meaningful = xorWidth - leading - trailing;
+
+            bits.writeBit(true);
+            bits.writeBits(leading, xorFieldBits);
+            bits.writeBits(meaningful - 1, xorFieldBits);
+            bits.writeBits(xor >>> trailing, meaningful);
+
+            xorLeading  = leading;
+            xorTrailing = trailing;
+        }
+    }
+}
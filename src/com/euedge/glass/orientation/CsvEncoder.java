@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Formats numbers into a reusable char buffer, without creating temporary
+ * Strings. Used to build the lines of the CSV recording format.
+ * <p>
+ * Floating point values are written as their exact binary value, correctly
+ * rounded to 9 (float) or 17 (double) significant digits, which is enough
+ * for {@link Float#parseFloat(String)} and {@link Double#parseDouble(String)}
+ * to give back exactly the same value. The conversion uses a small,
+ * preallocated big integer in base 10^9.
+ * <p>
+ * The class is not thread safe.
+ */
+public class CsvEncoder {
+
+    private static final int FLOAT_DIGITS = 9;
+
+    private static final int DOUBLE_DIGITS = 17;
+
+    private static final int LIMB_BASE = 1000000000;
+
+    /** 5^13, the largest power of 5 that fits into an int. */
+    private static final int POW5_13 = 1220703125;
+
+    /** Enough for 2^1023 * 2^53, or for 5^1074 * 2^53. */
+    private static final int MAX_LIMBS = 90;
+
+    private static final int MAX_DIGITS = MAX_LIMBS * 9;
+
+    private char[] buffer = new char[256];
+
+    private int length;
+
+    private final int[] limbs = new int[MAX_LIMBS];
+
+    private int limbCount;
+
+    private final char[] digits = new char[MAX_DIGITS];
+
+    /**
+     * Empties the buffer.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Writes the contents of the buffer.
+     *
+     * @param writer the writer to write to
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(buffer, 0, length);
+    }
+
+    public CsvEncoder append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = c;
+        return this;
+    }
+
+    public CsvEncoder append(String s) {
+        int n = s.length();
+        ensureCapacity(n);
+        s.getChars(0, n, buffer, length);
+        length += n;
+        return this;
+    }
+
+    public CsvEncoder append(boolean b) {
+        return append(b ? "true" : "false");
+    }
+
+    public CsvEncoder append(long l) {
+        ensureCapacity(20);
+
+        if (l == Long.MIN_VALUE) {
+            return append("-9223372036854775808");
+        }
+        if (l < 0) {
+            buffer[length++] = '-';
+            l = -l;
+        }
+
+        int start = length;
+        do {
+            buffer[length++] = (char) ('0' + (int) (l % 10));
+            l /= 10;
+        } while (l != 0);
+        reverse(start, length - 1);
+
+        return this;
+    }
+
+    public CsvEncoder append(float f) {
+        return appendDecimal(f, FLOAT_DIGITS);
+    }
+
+    public CsvEncoder append(double d) {
+        return appendDecimal(d, DOUBLE_DIGITS);
+    }
+
+    private CsvEncoder appendDecimal(double d, int significantDigits) {
+        if (Double.isNaN(d)) {
+            return append("NaN");
+        }
+        if (Double.isInfinite(d)) {
+            return append(d > 0 ? "Infinity" : "-Infinity");
+        }
+
+        long bits = Double.doubleToRawLongBits(d);
+        if (bits < 0) {
+            append('-');
+        }
+        if (d == 0.0) {
+            return append("0.0");
+        }
+
+        int exponent = (int) ((bits >>> 52) & 0x7ff);
+        long mantissa = bits & 0xfffffffffffffL;
+        if (exponent == 0) {
+            exponent = 1;
+        } else {
+            mantissa |= 1L << 52;
+        }
+        exponent -= 1075;
+
+        while ((mantissa & 1) == 0) {
+            mantissa >>= 1;
+            ++exponent;
+        }
+
+        // the value is mantissa * 2^exponent; turn it into an integer
+        // and the number of decimal digits after the decimal point
+        int fractionDigits;
+        setLimbs(mantissa);
+        if (exponent >= 0) {
+            for (; exponent >= 30; exponent -= 30) {
+                multiplyLimbs(1 << 30);
+            }
+            multiplyLimbs(1 << exponent);
+            fractionDigits = 0;
+        } else {
+            fractionDigits = -exponent;
+            int e = fractionDigits;
+            for (; e >= 13; e -= 13) {
+                multiplyLimbs(POW5_13);
+            }
+            int pow5 = 1;
+            for (; e > 0; --e) {
+                pow5 *= 5;
+            }
+            multiplyLimbs(pow5);
+        }
+
+        int digitCount = limbsToDigits();
+        int pointPosition = digitCount - fractionDigits;
+
+        if (digitCount > significantDigits) {
+            if (roundUp(significantDigits, digitCount)) {
+                int i = significantDigits - 1;
+                while (i >= 0 && digits[i] == '9') {
+                    digits[i--] = '0';
+                }
+                if (i >= 0) {
+                    ++digits[i];
+                } else {
+                    digits[0] = '1';
+                    ++pointPosition;
+                }
+            }
+            digitCount = significantDigits;
+        }
+        while (digitCount > 1 && digits[digitCount - 1] == '0') {
+            --digitCount;
+        }
+
+        appendDigits(digitCount, pointPosition);
+        return this;
+    }
+
+    /**
+     * Decides whether to round up when cutting the digits at the specified
+     * position, rounding half to even.
+     */
+    private boolean roundUp(int cut, int digitCount) {
+        char first = digits[cut];
+        if (first != '5') {
+            return first > '5';
+        }
+        for (int i = cut + 1; i < digitCount; ++i) {
+            if (digits[i] != '0') {
+                return true;
+            }
+        }
+        return ((digits[cut - 1] - '0') & 1) != 0;
+    }
+
+    /**
+     * Appends the digits in the same notation as {@link Double#toString(double)}:
+     * plain for values between 10^-3 and 10^7, and computerized scientific
+     * notation otherwise.
+     */
+    private void appendDigits(int digitCount, int pointPosition) {
+        int decimalExponent = pointPosition - 1;
+        ensureCapacity(digitCount + 16);
+
+        if (decimalExponent >= -3 && decimalExponent < 7) {
+            if (pointPosition <= 0) {
+                buffer[length++] = '0';
+                buffer[length++] = '.';
+                for (int i = pointPosition; i < 0; ++i) {
+                    buffer[length++] = '0';
+                }
+                copyDigits(0, digitCount);
+            } else if (pointPosition >= digitCount) {
+                copyDigits(0, digitCount);
+                for (int i = digitCount; i < pointPosition; ++i) {
+                    buffer[length++] = '0';
+                }
+                buffer[length++] = '.';
+                buffer[length++] = '0';
+            } else {
+                copyDigits(0, pointPosition);
+                buffer[length++] = '.';
+                copyDigits(pointPosition, digitCount);
+            }
+        } else {
+            buffer[length++] = digits[0];
+            buffer[length++] = '.';
+            if (digitCount > 1) {
+                copyDigits(1, digitCount);
+            } else {
+                buffer[length++] = '0';
+            }
+            buffer[length++] = 'E';
+            append((long) decimalExponent);
+        }
+    }
+
+    private void copyDigits(int from, int to) {
+        System.arraycopy(digits, from, buffer, length, to - from);
+        length += to - from;
+    }
+
+    private void setLimbs(long value) {
+        limbCount = 0;
+        do {
+            limbs[limbCount++] = (int) (value % LIMB_BASE);
+            value /= LIMB_BASE;
+        } while (value != 0);
+    }
+
+    private void multiplyLimbs(int factor) {
+        if (factor == 1) {
+            return;
+        }
+
+        long carry = 0;
+        for (int i = 0; i < limbCount; ++i) {
+            long product = limbs[i] * (long) factor + carry;
+            limbs[i] = (int) (product % LIMB_BASE);
+            carry = product / LIMB_BASE;
+        }
+        while (carry != 0) {
+            limbs[limbCount++] = (int) (carry % LIMB_BASE);
+            carry /= LIMB_BASE;
+        }
+    }
+
+    /**
+     * Writes the decimal digits of the big integer into the digits array.
+     *
+     * @return the number of digits
+     */
+    private int limbsToDigits() {
+        int count = 0;
+
+        int top = limbs[limbCount - 1];
+        int start = count;
+        do {
+            digits[count++] = (char) ('0' + top % 10);
+            top /= 10;
+        } while (top != 0);
+        reverseDigits(start, count - 1);
+
+        for (int i = limbCount - 2; i >= 0; --i) {
+            int limb = limbs[i];
+            for (int j = count + 8; j >= count; --j) {
+                digits[j] = (char) ('0' + limb % 10);
+                limb /= 10;
+            }
+            count += 9;
+        }
+
+        return count;
+    }
+
+    private void reverse(int from, int to) {
+        for (; from < to; ++from, --to) {
+            char c = buffer[from];
+            buffer[from] = buffer[to];
+            buffer[to] = c;
+        }
+    }
+
+    private void reverseDigits(int from, int to) {
+        for (; from < to; ++from, --to) {
+            char c = digits[from];
+            digits[from] = digits[to];
+            digits[to] = c;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            char[] b = new char[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, b, 0, length);
+            buffer = b;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes records in the original comma separated text format, one record
+ * per line:
+ *
+ * <pre>
+ * offset,O,heading,pitch,roll
+ * offset,L,latitude,longitude,altitude,bearing,speed,accuracy
+ * offset,A,hasInterference
+ * </pre>
+ *
+ * The first line, {@link #NANOSECONDS_HEADER}, marks the offsets as
+ * nanoseconds. Recordings without it have their offsets in milliseconds.
+ */
+public class CsvRecordWriter implements RecordWriter {
+
+    /** The header line of recordings with offsets in nanoseconds. */
+    public static final String NANOSECONDS_HEADER = "#offset=ns";
+
+    private final CountingOutputStream stream;
+
+    private BufferedWriter writer;
+
+    private final CsvEncoder encoder = new CsvEncoder();
+
+    private final String lineSeparator = System.getProperty("line.separator");
+
+    public CsvRecordWriter(OutputStream out) throws IOException {
+        this.stream = new CountingOutputStream(out);
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream));
+
+        this.writer.write(NANOSECONDS_HEADER);
+        this.writer.write(lineSeparator);
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        encoder.reset();
+        encoder.append(record.offset)
+               .append(',')
+               .append(record.type)
+               .append(',');
+
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            encoder.append(record.heading)
+                   .append(',')
+                   .append(record.pitch)
+                   .append(',')
+                   .append(record.roll);
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            encoder.append(record.latitude)
+                   .append(',')
+                   .append(record.longitude)
+                   .append(',')
+                   .append(record.altitude)
+                   .append(',')
+                   .append(record.bearing)
+                   .append(',')
+                   .append(record.speed)
+                   .append(',')
+                   .append(record.accuracy);
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            encoder.append(record.hasInterference);
+            break;
+        default:
+            throw new IOException("unknown record type: " + record.type);
+        }
+
+        encoder.append(lineSeparator);
+        encoder.writeTo(writer);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        writer.flush();
+        stream.sync();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return stream.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+        writer.close();
+    }
+}
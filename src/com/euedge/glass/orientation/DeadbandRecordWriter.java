@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+import com.euedge.glass.orientationrecorder.util.MathUtils;
+
+/**
+ * A writer that thins out orientation records before passing them on to
+ * another writer. An orientation record is only written if heading, pitch
+ * or roll moved beyond its dead-band since the last written orientation, and
+ * no sooner than a minimum interval after it. A keyframe is still written
+ * at a regular interval, even if the orientation did not change. Location
+ * and accuracy records are always written.
+ */
+public class DeadbandRecordWriter implements RecordWriter {
+
+    private final RecordWriter writer;
+
+    private final float headingDeadband;
+
+    private final float pitchDeadband;
+
+    private final float rollDeadband;
+
+    private final long minInterval;
+
+    private final long keyframeInterval;
+
+    private boolean hasLast;
+
+    private long lastOffset;
+
+    private float lastHeading;
+
+    private float lastPitch;
+
+    private float lastRoll;
+
+    private volatile long filteredCount;
+
+    /**
+     * Creates a filtering writer.
+     *
+     * @param writer the writer to pass the records on to
+     * @param headingDeadband the change in heading, in degrees, below which
+     *        an orientation is not written
+     * @param pitchDeadband the change in pitch, in degrees, below which an
+     *        orientation is not written
+     * @param rollDeadband the change in roll, in degrees, below which an
+     *        orientation is not written
+     * @param minInterval the minimum time between two written orientations,
+     *        in the unit of the record offsets, or 0 for no limit
+     * @param keyframeInterval the time after which an orientation is written
+     *        regardless of the dead-bands, in the unit of the record offsets,
+     *        or 0 to never force a keyframe
+     */
+    public DeadbandRecordWriter(RecordWriter writer,
+                                float headingDeadband,
+                                float pitchDeadband,
+                                float rollDeadband,
+                                long minInterval,
+                                long keyframeInterval) {
+        this.writer           = writer;
+        this.headingDeadband  = headingDeadband;
+        this.pitchDeadband    = pitchDeadband;
+        this.rollDeadband     = rollDeadband;
+        this.minInterval      = minInterval;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Gets the number of orientation records left out so far.
+     *
+     * @return the number of filtered records
+     */
+    public long getFilteredCount() {
+        return filteredCount;
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        if (record.type == OrientationRecord.TYPE_ORIENTATION && hasLast) {
+            long elapsed = record.offset - lastOffset;
+
+            boolean keyframeDue = keyframeInterval > 0 && elapsed >= keyframeInterval;
+            if (elapsed < minInterval
+                    || (!keyframeDue && !isOutsideDeadband(record))) {
+                ++filteredCount;
+                return;
+            }
+        }
+
+        if (record.type == OrientationRecord.TYPE_ORIENTATION) {
+            hasLast     = true;
+            lastOffset  = record.offset;
+            lastHeading = record.heading;
+            lastPitch   = record.pitch;
+            lastRoll    = record.roll;
+        }
+
+        writer.write(record);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        writer.sync();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return writer.getBytesWritten();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private boolean isOutsideDeadband(OrientationRecord record) {
+        // the heading wraps around at 360 degrees, take the shorter way
+        float heading = Math.abs(MathUtils.mod(record.heading - lastHeading + 180.0f,
+                                               360.0f) - 180.0f);
+
+        return heading > headingDeadband
+            || Math.abs(record.pitch - lastPitch) > pitchDeadband
+            || Math.abs(record.roll - lastRoll) > rollDeadband;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+/**
+ * Brings the timestamps of sensor events and location fixes onto a common
+ * time base: the nanoseconds elapsed since boot, including deep sleep, as
+ * returned by {@code SystemClock.elapsedRealtimeNanos()}. Unlike the wall
+ * clock, this time base never jumps.
+ * <p>
+ * {@code SystemClock.elapsedRealtimeNanos()} and
+ * {@code Location.getElapsedRealtimeNanos()} appeared in API level 17, so
+ * they are looked up reflectively, falling back to millisecond precision on
+ * older platforms.
+ */
+final class ElapsedRealtime {
+
+    /**
+     * How far a sensor timestamp may be from a clock to be considered to be
+     * on the time base of that clock.
+     */
+    private static final long SAME_CLOCK_TOLERANCE = 1000L * OrientationRecord.NANOS_PER_MILLI;
+
+    private static final Method ELAPSED_REALTIME_NANOS =
+            findMethod(SystemClock.class, "elapsedRealtimeNanos");
+
+    private static final Method LOCATION_ELAPSED_REALTIME_NANOS =
+            findMethod(Location.class, "getElapsedRealtimeNanos");
+
+    private ElapsedRealtime() {
+    }
+
+    /**
+     * Gets the current time.
+     *
+     * @return the nanoseconds elapsed since boot
+     */
+    static long nanos() {
+        if (ELAPSED_REALTIME_NANOS != null) {
+            try {
+                return (Long) ELAPSED_REALTIME_NANOS.invoke(null);
+            } catch (Exception e) {
+            }
+        }
+
+        return SystemClock.elapsedRealtime() * OrientationRecord.NANOS_PER_MILLI;
+    }
+
+    /**
+     * Gets the time a location fix was taken at. On platforms that don't
+     * record it, the time the fix is processed at is used instead.
+     *
+     * @param location the location fix
+     * @return the nanoseconds elapsed since boot
+     */
+    static long ofLocation(Location location) {
+        if (LOCATION_ELAPSED_REALTIME_NANOS != null) {
+            try {
+                long nanos = (Long) LOCATION_ELAPSED_REALTIME_NANOS.invoke(location);
+                if (nanos != 0) {
+                    return nanos;
+                }
+            } catch (Exception e) {
+            }
+        }
+
+        return nanos();
+    }
+
+    /**
+     * Converts the timestamps of sensor events. Depending on the device and
+     * the platform version, sensor timestamps are either on the elapsed
+     * realtime time base, or on the time base of {@link System#nanoTime()},
+     * which stops during deep sleep.
+     * <p>
+     * The time base of each sensor is found from its first event that is
+     * close to only one of the clocks: until the device first sleeps, the
+     * two clocks nearly coincide, and the events are taken as elapsed
+     * realtime without deciding. The offset between the time bases is measured once every
+     * {@link #CALIBRATION_INTERVAL}, so converting an event is a plain
+     * addition, without looking up the clock reflectively. The class is not
+     * thread safe, it is meant to be used on the thread the sensor events
+     * are delivered on.
+     */
+    static final class SensorClock {
+
+        /** The time between measuring the offset of the time bases. */
+        static final long CALIBRATION_INTERVAL = 10000L * OrientationRecord.NANOS_PER_MILLI;
+
+        private static final int UNKNOWN = 0;
+        private static final int ELAPSED_REALTIME = 1;
+        private static final int NANO_TIME = 2;
+        private static final int OTHER = 3;
+
+        /** The time base of each sensor, by sensor type. */
+        private int[] bases = new int[32];
+
+        /** The offsets of sensors on other time bases, by sensor type. */
+        private long[] offsets = new long[32];
+
+        /** The elapsed realtime minus {@link System#nanoTime()}. */
+        private long nanoTimeOffset;
+
+        private long calibratedAt;
+
+        private boolean calibrated;
+
+        /**
+         * Forgets the time bases of the sensors, for example when the
+         * sensors are registered again.
+         */
+        void reset() {
+            Arrays.fill(bases, UNKNOWN);
+            calibrated = false;
+        }
+
+        /**
+         * Gets the current time.
+         *
+         * @return the nanoseconds elapsed since boot
+         */
+        long nanos() {
+            long nanoTime = System.nanoTime();
+            if (!calibrated || nanoTime - calibratedAt > CALIBRATION_INTERVAL) {
+                nanoTimeOffset = ElapsedRealtime.nanos() - nanoTime;
+                calibratedAt   = nanoTime;
+                calibrated     = true;
+            }
+
+            return nanoTime + nanoTimeOffset;
+        }
+
+        /**
+         * Converts the timestamp of a sensor event.
+         *
+         * @param sensorType the type of the sensor
+         * @param timestamp the timestamp of the sensor event
+         * @return the nanoseconds elapsed since boot
+         */
+        long ofSensorEvent(int sensorType, long timestamp) {
+            if (sensorType >= bases.length) {
+                int capacity = Math.max(sensorType + 1, bases.length * 2);
+                int[] newBases = new int[capacity];
+                System.arraycopy(bases, 0, newBases, 0, bases.length);
+                long[] newOffsets = new long[capacity];
+                System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+                bases   = newBases;
+                offsets = newOffsets;
+            }
+
+            long now = nanos();
+            switch (bases[sensorType]) {
+            case ELAPSED_REALTIME:
+                return timestamp;
+            case NANO_TIME:
+                return timestamp + nanoTimeOffset;
+            case OTHER:
+                return timestamp + offsets[sensorType];
+            default:
+            }
+
+            boolean elapsedRealtime = Math.abs(now - timestamp) < SAME_CLOCK_TOLERANCE;
+            boolean nanoTime =
+                    Math.abs(now - nanoTimeOffset - timestamp) < SAME_CLOCK_TOLERANCE;
+            if (elapsedRealtime && nanoTime) {
+                // the clocks can't be told apart yet, and converting either
+                // way gives nearly the same time; decide on a later event
+                return timestamp;
+            }
+            if (elapsedRealtime) {
+                bases[sensorType] = ELAPSED_REALTIME;
+                return timestamp;
+            }
+            if (nanoTime) {
+                bases[sensorType] = NANO_TIME;
+                return timestamp + nanoTimeOffset;
+            }
+
+            // an unknown time base, anchored at the time of delivery of the
+            // first event
+            bases[sensorType]   = OTHER;
+            offsets[sensorType] = now - timestamp;
+            return now;
+        }
+    }
+
+    private static Method findMethod(Class<?> cls, String name) {
+        try {
+            return cls.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
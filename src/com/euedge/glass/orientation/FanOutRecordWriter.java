@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A record writer that hands each record to several writers. A failing
+ * writer does not keep the records from the others: every writer is
+ * written to, and the first failure is reported afterwards. To keep a slow
+ * writer from holding up the others, enclose it in an
+ * {@link AsyncRecordWriter}.
+ */
+public class FanOutRecordWriter implements RecordWriter {
+
+    private final RecordWriter[] writers;
+
+    public FanOutRecordWriter(RecordWriter... writers) {
+        this.writers = writers.clone();
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        IOException failure = null;
+        for (RecordWriter writer : writers) {
+            try {
+                writer.write(record);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        IOException failure = null;
+        for (RecordWriter writer : writers) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        IOException failure = null;
+        for (RecordWriter writer : writers) {
+            try {
+                writer.sync();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Gets the number of bytes written by all the writers together.
+     */
+    @Override
+    public long getBytesWritten() {
+        long bytes = 0;
+        for (RecordWriter writer : writers) {
+            bytes += writer.getBytesWritten();
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (RecordWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the most recent records in memory, in a fixed size
+ * {@link RecordBuffer}, so that the moments before something interesting
+ * happened can be saved to a recording after the fact. Capturing a record
+ * neither allocates nor touches the disk; the oldest records are simply
+ * overwritten.
+ * <p>
+ * The offsets of the captured records are timestamps on the elapsed
+ * realtime clock, see {@link OrientationManager#getTimestamp()}. They are
+ * rebased to the start of the saved window when saving. Capturing and
+ * saving may happen on different threads.
+ */
+public class FlightRecorder {
+
+    private final RecordBuffer buffer;
+
+    private final OrientationRecord scratch = new OrientationRecord();
+
+    /**
+     * Creates a flight recorder.
+     *
+     * @param capacity the number of records to keep
+     */
+    public FlightRecorder(int capacity) {
+        buffer = new RecordBuffer(capacity);
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Captures a record, dropping the oldest one if the recorder is full.
+     *
+     * @param record the record to capture, its offset being a timestamp in
+     *        nanoseconds elapsed since boot
+     */
+    public synchronized void capture(OrientationRecord record) {
+        buffer.addOverwriting(record);
+    }
+
+    /**
+     * Drops all captured records.
+     */
+    public synchronized void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * Copies the records of the last moments out of the recorder. The last
+     * location and accuracy records before the window are copied too, moved
+     * to its start, so that a replay of the window starts from a complete
+     * state.
+     *
+     * @param duration the length of the window, in nanoseconds
+     * @return the records of the window, with their original timestamps
+     */
+    public synchronized RecordBuffer snapshot(long duration) {
+        int size = buffer.size();
+        if (size == 0) {
+            return new RecordBuffer(1);
+        }
+
+        long end = buffer.getOffset(size - 1);
+        int first = size;
+        while (first > 0 && end - buffer.getOffset(first - 1) <= duration) {
+            --first;
+        }
+        long start = buffer.getOffset(first);
+
+        int lastLocation = -1;
+        int lastAccuracy = -1;
+        for (int i = first - 1; i >= 0 && (lastLocation < 0 || lastAccuracy < 0); --i) {
+            buffer.get(i, scratch);
+            if (scratch.type == OrientationRecord.TYPE_LOCATION && lastLocation < 0) {
+                lastLocation = i;
+            } else if (scratch.type == OrientationRecord.TYPE_ACCURACY && lastAccuracy < 0) {
+                lastAccuracy = i;
+            }
+        }
+
+        RecordBuffer copy = new RecordBuffer(size - first + 2);
+        if (lastLocation >= 0) {
+            buffer.get(lastLocation, scratch);
+            scratch.offset = start;
+            copy.add(scratch);
+        }
+        if (lastAccuracy >= 0) {
+            buffer.get(lastAccuracy, scratch);
+            scratch.offset = start;
+            copy.add(scratch);
+        }
+        for (int i = first; i < size; ++i) {
+            buffer.get(i, scratch);
+            copy.add(scratch);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Saves the records of the last moments into a recording. Only the
+     * copying of the records blocks capturing, the file is written
+     * afterwards.
+     *
+     * @param file the file to save the recording into
+     * @param format the format to save the recording in
+     * @param duration the length of the window to save, in nanoseconds
+     * @return the number of records saved
+     */
+    public int save(File file, RecordingFormat format, long duration)
+            throws IOException {
+        RecordBuffer records = snapshot(duration);
+        save(records, file, format, getStartTime(records));
+
+        return records.size();
+    }
+
+    /**
+     * Gets the wall clock time a snapshot starts at.
+     *
+     * @param records a snapshot taken by {@link #snapshot(long)}
+     * @return the time of the first record, in milliseconds since the epoch
+     */
+    public static long getStartTime(RecordBuffer records) {
+        long now = ElapsedRealtime.nanos();
+        long start = records.isEmpty() ? now : records.getOffset(0);
+
+        return System.currentTimeMillis() - (now - start) / OrientationRecord.NANOS_PER_MILLI;
+    }
+
+    /**
+     * Saves a snapshot into a recording, with the offsets rebased to the
+     * first record, and its summary next to it.
+     *
+     * @param records a snapshot taken by {@link #snapshot(long)}
+     * @param file the file to save the recording into
+     * @param format the format to save the recording in
+     * @param startTime the start time of the snapshot, as returned by
+     *        {@link #getStartTime(RecordBuffer)} when it was taken
+     */
+    public static void save(RecordBuffer records, File file, RecordingFormat format,
+                            long startTime) throws IOException {
+        OrientationRecord record = new OrientationRecord();
+        long start = records.isEmpty() ? 0 : records.getOffset(0);
+
+        RecordWriter writer = new SummarizingRecordWriter(
+                format.newWriter(file, startTime), file);
+        try {
+            for (int i = 0; i < records.size(); ++i) {
+                records.get(i, record);
+                record.offset -= start;
+                writer.write(record);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
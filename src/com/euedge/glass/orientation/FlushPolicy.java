@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * When a recording is flushed while it is being written, trading the
+ * records lost on a crash against the number of writes to the storage. A
+ * flush is due after a number of records, after some time, or on a location
+ * fix, whichever comes first; and it may go as far as forcing the records to
+ * the storage device. See {@link FlushingRecordWriter}.
+ */
+public class FlushPolicy {
+
+    /** Flushes only when the recording is stopped. */
+    public static final FlushPolicy ON_CLOSE = new FlushPolicy(0, 0, false, false);
+
+    private final int recordInterval;
+
+    private final long timeInterval;
+
+    private final boolean onLocation;
+
+    private final boolean sync;
+
+    /**
+     * Creates a flush policy.
+     *
+     * @param recordInterval the number of records after which to flush, or 0
+     *        for no limit
+     * @param timeInterval the time after which to flush, in milliseconds of
+     *        recording time, or 0 for no limit
+     * @param onLocation true to flush after each location fix
+     * @param sync true to force the records to the storage device on each
+     *        flush, see {@link RecordWriter#sync()}
+     */
+    public FlushPolicy(int recordInterval, long timeInterval,
+                       boolean onLocation, boolean sync) {
+        this.recordInterval = recordInterval;
+        this.timeInterval   = timeInterval;
+        this.onLocation     = onLocation;
+        this.sync           = sync;
+    }
+
+    public int getRecordInterval() {
+        return recordInterval;
+    }
+
+    public long getTimeInterval() {
+        return timeInterval;
+    }
+
+    public boolean isOnLocation() {
+        return onLocation;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+}
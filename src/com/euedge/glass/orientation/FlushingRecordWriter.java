@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A record writer that flushes the enclosed writer according to a
+ * {@link FlushPolicy}, and keeps statistics about the writes, so that the
+ * policy can be tuned: the bytes written, the number of flushes and the time
+ * they took. The statistics may be read from any thread.
+ * <p>
+ * The time interval of the policy is measured on the record offsets, so
+ * flushes are only ever done as records are written. Put this writer below
+ * an {@link AsyncRecordWriter}, so that the flushes happen on the writer
+ * thread.
+ */
+public class FlushingRecordWriter implements RecordWriter {
+
+    private final RecordWriter writer;
+
+    private final FlushPolicy policy;
+
+    private final long timeInterval;
+
+    private int unflushedCount;
+
+    private long lastFlushOffset;
+
+    private volatile long bytesWritten;
+
+    private volatile long flushCount;
+
+    private volatile long totalFlushLatency;
+
+    private volatile long maxFlushLatency;
+
+    /**
+     * Creates a flushing writer.
+     *
+     * @param writer the writer to pass the records on to
+     * @param policy when to flush
+     */
+    public FlushingRecordWriter(RecordWriter writer, FlushPolicy policy) {
+        this.writer = writer;
+        this.policy = policy;
+
+        timeInterval = policy.getTimeInterval() * OrientationRecord.NANOS_PER_MILLI;
+    }
+
+    public FlushPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the number of flushes (or syncs) done so far, including the ones
+     * requested from outside.
+     *
+     * @return the number of flushes
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Gets the time spent flushing so far.
+     *
+     * @return the total time of the flushes, in nanoseconds
+     */
+    public long getTotalFlushLatency() {
+        return totalFlushLatency;
+    }
+
+    /**
+     * Gets the time the slowest flush took so far.
+     *
+     * @return the longest time of a flush, in nanoseconds
+     */
+    public long getMaxFlushLatency() {
+        return maxFlushLatency;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        writer.write(record);
+        ++unflushedCount;
+
+        if ((policy.getRecordInterval() > 0
+                    && unflushedCount >= policy.getRecordInterval())
+                || (timeInterval > 0 && record.offset - lastFlushOffset >= timeInterval)
+                || (policy.isOnLocation()
+                    && record.type == OrientationRecord.TYPE_LOCATION)) {
+            lastFlushOffset = record.offset;
+            flush(policy.isSync());
+        } else {
+            bytesWritten = writer.getBytesWritten();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flush(false);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flush(true);
+    }
+
+    /**
+     * Flushes (or syncs, as the policy says) the enclosed writer, counting
+     * it as the final flush, and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(policy.isSync());
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                bytesWritten = writer.getBytesWritten();
+            }
+        }
+    }
+
+    private void flush(boolean sync) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (sync) {
+                writer.sync();
+            } else {
+                writer.flush();
+            }
+        } finally {
+            long latency = System.nanoTime() - start;
+
+            unflushedCount    = 0;
+            totalFlushLatency = totalFlushLatency + latency;
+            maxFlushLatency   = Math.max(maxFlushLatency, latency);
+            bytesWritten      = writer.getBytesWritten();
+            ++flushCount;
+        }
+    }
+}
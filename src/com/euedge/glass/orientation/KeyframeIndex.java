@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A sparse index of a recording, for seeking. For every second of the
+ * recording, it holds the offset of the first record at or after the
+ * second, and the last orientation, location and accuracy records before
+ * it, so that the state of the replay at any point can be restored from
+ * the preceding entry and the records that follow it.
+ * <p>
+ * The index is built by reading through the recording once. Records that
+ * didn't change between entries are shared, so a recording with a few
+ * location fixes doesn't keep a copy of the same fix for every second.
+ */
+class KeyframeIndex {
+
+    /** The time between the entries, in nanoseconds. */
+    public static final long INTERVAL = 1000L * OrientationRecord.NANOS_PER_MILLI;
+
+    private long[] offsets = new long[64];
+
+    private OrientationRecord[] orientations = new OrientationRecord[64];
+
+    private OrientationRecord[] locations = new OrientationRecord[64];
+
+    private OrientationRecord[] accuracies = new OrientationRecord[64];
+
+    private int size;
+
+    /**
+     * Builds the index of a recording.
+     *
+     * @param reader the reader of the recording, positioned at its start
+     * @return the index
+     */
+    public static KeyframeIndex build(RecordReader reader) throws IOException {
+        KeyframeIndex index = new KeyframeIndex();
+        OrientationRecord record = new OrientationRecord();
+        OrientationRecord[] last = new OrientationRecord[3];
+        OrientationRecord[] latest = new OrientationRecord[3];
+        boolean[] changed = new boolean[3];
+        long boundary = 0;
+
+        while (reader.read(record)) {
+            if (record.offset >= boundary) {
+                for (int i = 0; i < last.length; ++i) {
+                    if (changed[i]) {
+                        last[i] = new OrientationRecord();
+                        last[i].set(latest[i]);
+                        changed[i] = false;
+                    }
+                }
+                index.add(record.offset, last[0], last[1], last[2]);
+                boundary = (record.offset / INTERVAL + 1) * INTERVAL;
+            }
+
+            int i;
+            switch (record.type) {
+            case OrientationRecord.TYPE_ORIENTATION:
+                i = 0;
+                break;
+            case OrientationRecord.TYPE_LOCATION:
+                i = 1;
+                break;
+            case OrientationRecord.TYPE_ACCURACY:
+                i = 2;
+                break;
+            default:
+                continue;
+            }
+            if (latest[i] == null) {
+                latest[i] = new OrientationRecord();
+            }
+            latest[i].set(record);
+            changed[i] = true;
+        }
+
+        return index;
+    }
+
+    private void add(long offset,
+                     OrientationRecord orientation,
+                     OrientationRecord location,
+                     OrientationRecord accuracy) {
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            long[] newOffsets = new long[capacity];
+            System.arraycopy(offsets, 0, newOffsets, 0, size);
+            offsets      = newOffsets;
+            orientations = grow(orientations, capacity);
+            locations    = grow(locations, capacity);
+            accuracies   = grow(accuracies, capacity);
+        }
+
+        offsets[size]      = offset;
+        orientations[size] = orientation;
+        locations[size]    = location;
+        accuracies[size]   = accuracy;
+        ++size;
+    }
+
+    private static OrientationRecord[] grow(OrientationRecord[] records, int capacity) {
+        OrientationRecord[] grown = new OrientationRecord[capacity];
+        System.arraycopy(records, 0, grown, 0, records.length);
+
+        return grown;
+    }
+
+    /**
+     * Gets the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the last entry at or before an offset.
+     *
+     * @param offset the offset to look for, in nanoseconds
+     * @return the index of the entry, or -1 if the offset is before the
+     *         first record
+     */
+    public int find(long offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+
+    /**
+     * Gets the offset of the first record of an entry.
+     */
+    public long getOffset(int entry) {
+        return offsets[entry];
+    }
+
+    /**
+     * Gets the last orientation record before an entry.
+     *
+     * @return the record, or null if there was none
+     */
+    public OrientationRecord getOrientation(int entry) {
+        return orientations[entry];
+    }
+
+    /**
+     * Gets the last location record before an entry.
+     *
+     * @return the record, or null if there was none
+     */
+    public OrientationRecord getLocation(int entry) {
+        return locations[entry];
+    }
+
+    /**
+     * Gets the last accuracy record before an entry.
+     *
+     * @return the record, or null if there was none
+     */
+    public OrientationRecord getAccuracy(int entry) {
+        return accuracies[entry];
+    }
+}
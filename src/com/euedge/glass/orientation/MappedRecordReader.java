@@ -0,0 +1,672 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads binary or CSV recordings through a memory mapped view of the file,
+ * decoding the records right out of the mapped bytes. There is no copying
+ * into stream buffers, and CSV lines are not turned into strings: the
+ * numbers are parsed from the bytes.
+ * <p>
+ * Decimal numbers are converted exactly, without allocation, when their
+ * digits fit into a double and their decimal exponent is small, which
+ * covers the 9 digit floats of orientation records. Longer numbers, such as
+ * the 17 digit doubles of location records, are handed to the platform's
+ * parser.
+ * <p>
+ * The first {@link #seek(long)} scans the recording once, building a sparse
+ * index of the positions of every {@value #INDEX_INTERVAL}th record; later
+ * seeks jump to the closest indexed record and skip the few before the
+ * offset.
+ */
+public class MappedRecordReader implements SeekableRecordReader {
+
+    /** The number of records between two entries of the seek index. */
+    public static final int INDEX_INTERVAL = 256;
+
+    /** The powers of ten that are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** The powers of five matching {@link #POWERS_OF_TEN}, as longs. */
+    private static final long[] POWERS_OF_FIVE = new long[POWERS_OF_TEN.length];
+
+    static {
+        POWERS_OF_FIVE[0] = 1;
+        for (int i = 1; i < POWERS_OF_FIVE.length; ++i) {
+            POWERS_OF_FIVE[i] = POWERS_OF_FIVE[i - 1] * 5;
+        }
+    }
+
+    /** The largest integer up to which all integers are exact doubles. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final long LOW_32_BITS = 0xFFFFFFFFL;
+
+    private static final byte[] NANOSECONDS_HEADER =
+            CsvRecordWriter.NANOSECONDS_HEADER.getBytes();
+
+    private final MappedByteBuffer buffer;
+
+    private final boolean binary;
+
+    /** The number of nanoseconds in the unit of the offsets in the file. */
+    private long offsetScale = OrientationRecord.NANOS_PER_MILLI;
+
+    /** The position of the next CSV line. */
+    private int position;
+
+    /** The position of the first record, or of the first CSV header line. */
+    private int dataStart;
+
+    private long[] indexOffsets;
+
+    private int[] indexPositions;
+
+    private int indexSize = -1;
+
+    private final OrientationRecord skipped = new OrientationRecord();
+
+    /** The characters of a number handed to the platform's parser. */
+    private final char[] chars = new char[64];
+
+    /**
+     * Opens a recording. The file is mapped, and closed right away: the
+     * mapping stays valid on its own.
+     *
+     * @param file a binary or CSV recording
+     */
+    public MappedRecordReader(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            long size = f.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("recording too large to map: " + file);
+            }
+            buffer = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            f.close();
+        }
+
+        binary = buffer.limit() >= 4 && buffer.getInt(0) == BinaryRecordFormat.MAGIC;
+        if (binary) {
+            try {
+                readBinaryHeader();
+            } catch (RuntimeException e) {
+                throw new IOException("malformed binary recording header: " + file);
+            }
+        }
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) throws IOException {
+        if (binary) {
+            // a record cut short by a crash ends the recording
+            if (!BinaryRecordFormat.get(buffer, record)) {
+                return false;
+            }
+            record.offset *= offsetScale;
+            return true;
+        }
+
+        return readCsv(record);
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        if (indexSize < 0) {
+            buildIndex();
+        }
+
+        // find the last indexed record at or before the offset
+        int low = 0;
+        int high = indexSize - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexOffsets[mid] <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        setPosition(found >= 0 ? indexPositions[found] : dataStart);
+
+        // skip the records before the offset
+        while (true) {
+            int mark = getPosition();
+            if (!read(skipped)) {
+                return;
+            }
+            if (skipped.offset >= offset) {
+                setPosition(mark);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void buildIndex() throws IOException {
+        int resume = getPosition();
+
+        indexOffsets   = new long[64];
+        indexPositions = new int[64];
+        indexSize      = 0;
+
+        setPosition(dataStart);
+        for (int count = 0; ; ++count) {
+            int mark = getPosition();
+            if (!read(skipped)) {
+                break;
+            }
+            if (count % INDEX_INTERVAL != 0) {
+                continue;
+            }
+
+            if (indexSize == indexOffsets.length) {
+                long[] offsets = new long[indexSize * 2];
+                int[] positions = new int[indexSize * 2];
+                System.arraycopy(indexOffsets, 0, offsets, 0, indexSize);
+                System.arraycopy(indexPositions, 0, positions, 0, indexSize);
+                indexOffsets   = offsets;
+                indexPositions = positions;
+            }
+            indexOffsets[indexSize]   = skipped.offset;
+            indexPositions[indexSize] = mark;
+            ++indexSize;
+        }
+
+        setPosition(resume);
+    }
+
+    private int getPosition() {
+        return binary ? buffer.position() : position;
+    }
+
+    private void setPosition(int at) {
+        if (binary) {
+            buffer.position(at);
+        } else {
+            position = at;
+        }
+    }
+
+    private void readBinaryHeader() throws IOException {
+        buffer.getInt();
+        short version = buffer.getShort();
+        if (version < 1 || version > BinaryRecordFormat.VERSION) {
+            throw new IOException("unsupported binary recording version: " + version);
+        }
+        if (version >= BinaryRecordFormat.VERSION_NANOSECONDS) {
+            offsetScale = 1;
+        }
+        int headerLength = buffer.getShort();
+        buffer.getLong();
+
+        long committedLength = BinaryRecordFormat.UNKNOWN_LENGTH;
+        if (headerLength >= BinaryRecordFormat.HEADER_LENGTH) {
+            committedLength = buffer.getLong();
+        }
+        buffer.position(headerLength);
+        dataStart = headerLength;
+        if (committedLength != BinaryRecordFormat.UNKNOWN_LENGTH
+                && headerLength + committedLength < buffer.limit()) {
+            buffer.limit((int) (headerLength + committedLength));
+        }
+    }
+
+    private boolean readCsv(OrientationRecord record) throws IOException {
+        int limit = buffer.limit();
+
+        while (position < limit && buffer.get(position) == '#') {
+            if (matches(position, NANOSECONDS_HEADER)) {
+                offsetScale = 1;
+            }
+            position = skipLine(position);
+        }
+        if (position >= limit || isLineEnd(buffer.get(position))) {
+            return false;
+        }
+
+        int lineStart = position;
+        try {
+            long offset = parseLong() * offsetScale;
+            char type = (char) buffer.get(position++);
+
+            switch (type) {
+            case OrientationRecord.TYPE_ORIENTATION:
+                expectComma();
+                float heading = parseFloat();
+                expectComma();
+                float pitch = parseFloat();
+                expectComma();
+                record.setOrientation(offset, heading, pitch, parseFloat());
+                break;
+            case OrientationRecord.TYPE_LOCATION:
+                expectComma();
+                double latitude = parseDouble();
+                expectComma();
+                double longitude = parseDouble();
+                expectComma();
+                double altitude = parseDouble();
+                expectComma();
+                float bearing = parseFloat();
+                expectComma();
+                float speed = parseFloat();
+                expectComma();
+                record.setLocation(offset, latitude, longitude, altitude,
+                                   bearing, speed, parseFloat());
+                break;
+            case OrientationRecord.TYPE_ACCURACY:
+                expectComma();
+                record.setAccuracy(offset, parseBoolean());
+                break;
+            default:
+                record.offset = offset;
+                record.type   = type;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("malformed record at byte " + lineStart);
+        }
+
+        position = skipLine(position);
+        return true;
+    }
+
+    private boolean matches(int at, byte[] bytes) {
+        if (at + bytes.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (buffer.get(at + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return at + bytes.length == buffer.limit()
+            || isLineEnd(buffer.get(at + bytes.length));
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Gets the position of the line after the one containing a position.
+     */
+    private int skipLine(int at) {
+        int limit = buffer.limit();
+        while (at < limit && buffer.get(at) != '\n') {
+            ++at;
+        }
+        return at < limit ? at + 1 : limit;
+    }
+
+    /**
+     * Gets the end of the field at the current position.
+     */
+    private int fieldEnd() {
+        int at = position;
+        int limit = buffer.limit();
+        while (at < limit) {
+            byte b = buffer.get(at);
+            if (b == ',' || isLineEnd(b)) {
+                break;
+            }
+            ++at;
+        }
+        return at;
+    }
+
+    private void expectComma() {
+        if (buffer.get(position++) != ',') {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Parses a long, followed by a comma.
+     */
+    private long parseLong() {
+        boolean negative = buffer.get(position) == '-';
+        if (negative) {
+            ++position;
+        }
+
+        long value = 0;
+        int start = position;
+        byte b;
+        while ((b = buffer.get(position)) >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            ++position;
+        }
+        if (position == start || position - start > 18 || b != ',') {
+            throw new IllegalArgumentException();
+        }
+        ++position;
+
+        return negative ? -value : value;
+    }
+
+    private boolean parseBoolean() {
+        int end = fieldEnd();
+        boolean value = end - position == 4
+                && (buffer.get(position) | 0x20) == 't'
+                && (buffer.get(position + 1) | 0x20) == 'r'
+                && (buffer.get(position + 2) | 0x20) == 'u'
+                && (buffer.get(position + 3) | 0x20) == 'e';
+        position = end;
+        return value;
+    }
+
+    private float parseFloat() {
+        int start = position;
+        double value = parseExactDouble();
+        if (!Double.isNaN(value) && isExactFloat(value)) {
+            return (float) value;
+        }
+
+        position = start;
+        return Float.parseFloat(fieldString());
+    }
+
+    private double parseDouble() {
+        int start = position;
+        double value = parseExactDouble();
+        if (!Double.isNaN(value)) {
+            return value;
+        }
+
+        position = start;
+        return Double.parseDouble(fieldString());
+    }
+
+    /**
+     * Tells if rounding a correctly rounded double to float gives the float
+     * closest to the decimal the double was parsed from. It does, unless
+     * the double fell exactly halfway between two floats, or the float is
+     * subnormal.
+     */
+    private static boolean isExactFloat(double value) {
+        double magnitude = Math.abs(value);
+        if (magnitude == 0.0) {
+            return true;
+        }
+        if (magnitude < Float.MIN_NORMAL || magnitude > Float.MAX_VALUE) {
+            return false;
+        }
+
+        long bits = Double.doubleToRawLongBits(value);
+        return (bits & ((1L << 29) - 1)) != (1L << 28);
+    }
+
+    /**
+     * Parses a decimal number exactly, when it has few enough digits: the
+     * digits as an integer, and the power of ten to scale it by, are then
+     * both exact doubles, and a single multiplication or division rounds
+     * correctly. Up to 18 digits, such as the 17 digits of a location
+     * written by {@link Double#toString(double)}, are rounded by
+     * {@link #roundDecimal(long, int)} without allocating.
+     *
+     * @return the number, or NaN if it needs the platform's parser
+     */
+    private double parseExactDouble() {
+        int end = fieldEnd();
+        int at = position;
+
+        boolean negative = false;
+        if (at < end && buffer.get(at) == '-') {
+            negative = true;
+            ++at;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; at < end; ++at) {
+            byte b = buffer.get(at);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros don't count as digits
+                } else if (++digits > 18) {
+                    return Double.NaN;
+                } else {
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                if (seenPoint) {
+                    --exponent;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return Double.NaN;
+        }
+
+        if (at < end && (buffer.get(at) == 'E' || buffer.get(at) == 'e')) {
+            ++at;
+            boolean negativeExponent = false;
+            if (at < end && (buffer.get(at) == '-' || buffer.get(at) == '+')) {
+                negativeExponent = buffer.get(at) == '-';
+                ++at;
+            }
+            int exponentStart = at;
+            int e = 0;
+            for (; at < end && at - exponentStart < 4; ++at) {
+                byte b = buffer.get(at);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                e = e * 10 + (b - '0');
+            }
+            if (at == exponentStart) {
+                return Double.NaN;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (at != end) {
+            return Double.NaN;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (mantissa > MAX_EXACT_MANTISSA) {
+            if (exponent <= -POWERS_OF_TEN.length
+                    || exponent >= POWERS_OF_TEN.length) {
+                return Double.NaN;
+            }
+            value = roundDecimal(mantissa, exponent);
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.NaN;
+        }
+
+        position = end;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Rounds mantissa * 10^exponent to the closest double, for a mantissa
+     * too wide to be an exact double. The estimate from the scaled mantissa
+     * is off by at most a couple of ulps; it is stepped to the closest
+     * double by comparing the decimal exactly with the halfway points
+     * between neighbouring doubles, in 128 bit integer arithmetic.
+     *
+     * @param mantissa the digits, more than 2^53 and less than 2^63
+     * @param exponent the power of ten, less than 23 in magnitude
+     */
+    private static double roundDecimal(long mantissa, int exponent) {
+        double value = exponent >= 0
+                ? mantissa * POWERS_OF_TEN[exponent]
+                : mantissa / POWERS_OF_TEN[-exponent];
+
+        while (true) {
+            int above = compareToHalfwayAbove(mantissa, exponent, value);
+            if (above > 0 || (above == 0 && isOdd(value))) {
+                value = Math.nextUp(value);
+                continue;
+            }
+
+            double below = Math.nextAfter(value, 0.0);
+            int under = compareToHalfwayAbove(mantissa, exponent, below);
+            if (under < 0 || (under == 0 && isOdd(value))) {
+                value = below;
+                continue;
+            }
+
+            return value;
+        }
+    }
+
+    private static boolean isOdd(double value) {
+        return (Double.doubleToRawLongBits(value) & 1) != 0;
+    }
+
+    /**
+     * Compares mantissa * 10^exponent with the point halfway between a
+     * positive normal double and the next one up.
+     *
+     * @return the sign of the difference
+     */
+    private static int compareToHalfwayAbove(long mantissa, int exponent,
+                                             double value) {
+        // the halfway point is (2m + 1) * 2^(e - 1)
+        long bits = Double.doubleToRawLongBits(value);
+        long halfway = (((bits & ((1L << 52) - 1)) | (1L << 52)) << 1) + 1;
+        int halfwayShift = (int) (bits >>> 52) - 1075 - 1;
+
+        // the decimal is mantissa * 5^exponent * 2^exponent; the powers of
+        // five of a negative exponent go to the halfway point instead
+        long decimalHigh = 0;
+        long decimalLow  = mantissa;
+        long halfwayHigh = 0;
+        if (exponent >= 0) {
+            long five = POWERS_OF_FIVE[exponent];
+            decimalHigh = multiplyHigh(mantissa, five);
+            decimalLow  = mantissa * five;
+        } else {
+            long five = POWERS_OF_FIVE[-exponent];
+            halfwayHigh = multiplyHigh(halfway, five);
+            halfway    *= five;
+        }
+
+        return compareShifted(decimalHigh, decimalLow, exponent - halfwayShift,
+                              halfwayHigh, halfway);
+    }
+
+    /**
+     * Compares two unsigned 128 bit integers, the first one scaled by a
+     * power of two.
+     *
+     * @return the sign of a * 2^shift - b
+     */
+    private static int compareShifted(long aHigh, long aLow, int shift,
+                                      long bHigh, long bLow) {
+        int aLength = bitLength(aHigh, aLow);
+        int bLength = bitLength(bHigh, bLow);
+        if (aLength + shift != bLength) {
+            return aLength + shift > bLength ? 1 : -1;
+        }
+
+        // same length, so the shifted one still fits in 128 bits
+        if (shift > 0) {
+            aHigh = shiftLeftHigh(aHigh, aLow, shift);
+            aLow  = shift >= 64 ? 0 : aLow << shift;
+        } else if (shift < 0) {
+            bHigh = shiftLeftHigh(bHigh, bLow, -shift);
+            bLow  = -shift >= 64 ? 0 : bLow << -shift;
+        }
+
+        if (aHigh != bHigh) {
+            return compareUnsigned(aHigh, bHigh);
+        }
+        return compareUnsigned(aLow, bLow);
+    }
+
+    private static int bitLength(long high, long low) {
+        return high != 0 ? 128 - Long.numberOfLeadingZeros(high)
+                         : 64 - Long.numberOfLeadingZeros(low);
+    }
+
+    private static long shiftLeftHigh(long high, long low, int shift) {
+        if (shift >= 64) {
+            return low << (shift - 64);
+        }
+        return (high << shift) | (low >>> (64 - shift));
+    }
+
+    private static int compareUnsigned(long a, long b) {
+        if (a == b) {
+            return 0;
+        }
+        return (a ^ Long.MIN_VALUE) > (b ^ Long.MIN_VALUE) ? 1 : -1;
+    }
+
+    /**
+     * Gets the upper 64 bits of the 128 bit product of two unsigned longs.
+     */
+    private static long multiplyHigh(long a, long b) {
+        long a1 = a >>> 32;
+        long a0 = a & LOW_32_BITS;
+        long b1 = b >>> 32;
+        long b0 = b & LOW_32_BITS;
+
+        long p00 = a0 * b0;
+        long p01 = a0 * b1;
+        long p10 = a1 * b0;
+        long middle = (p00 >>> 32) + (p01 & LOW_32_BITS) + (p10 & LOW_32_BITS);
+        return a1 * b1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    /**
+     * Gets the field at the current position as a string, for the
+     * platform's parsers.
+     */
+    private String fieldString() {
+        int end = fieldEnd();
+        int length = end - position;
+        if (length > chars.length) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) buffer.get(position + i);
+        }
+        position = end;
+
+        return new String(chars, 0, length);
+    }
+}
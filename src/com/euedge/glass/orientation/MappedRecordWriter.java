@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes records in the binary format described by {@link BinaryRecordFormat}
+ * through a memory mapped region of the file, instead of through a stream.
+ * <p>
+ * Records are committed in batches: the mapped pages are forced to storage,
+ * and only then is the committed length in the header advanced. A crash or
+ * a battery pull thus loses at most the records written since the last
+ * commit, while the rest of the recording stays readable.
+ */
+public class MappedRecordWriter implements RecordWriter {
+
+    /** The default number of records written between two commits. */
+    public static final int DEFAULT_COMMIT_INTERVAL = 256;
+
+    /** The size of the file region mapped at a time. */
+    private static final int REGION_SIZE = 1024 * 1024;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer header;
+
+    private final int commitInterval;
+
+    private MappedByteBuffer region;
+
+    /** The file position the current region starts at. */
+    private long regionStart;
+
+    private int uncommitted;
+
+    public MappedRecordWriter(File file, long startTime) throws IOException {
+        this(file, startTime, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * Creates a writer, and writes the header of the recording.
+     *
+     * @param file the file to record into
+     * @param startTime the wall clock time the recording started at
+     * @param commitInterval the number of records written between two
+     *        commits
+     */
+    public MappedRecordWriter(File file, long startTime, int commitInterval)
+            throws IOException {
+        this.file           = new RandomAccessFile(file, "rw");
+        this.commitInterval = commitInterval;
+
+        try {
+            this.file.setLength(0);
+            channel = this.file.getChannel();
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                 BinaryRecordFormat.HEADER_LENGTH);
+            header.putInt(BinaryRecordFormat.MAGIC);
+            header.putShort(BinaryRecordFormat.VERSION);
+            header.putShort(BinaryRecordFormat.HEADER_LENGTH);
+            header.putLong(startTime);
+            header.putLong(0);
+            header.force();
+
+            mapRegion(BinaryRecordFormat.HEADER_LENGTH);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        if (region.remaining() < BinaryRecordFormat.LOCATION_RECORD_LENGTH) {
+            mapRegion(regionStart + region.position());
+        }
+
+        BinaryRecordFormat.put(region, record);
+
+        if (++uncommitted >= commitInterval) {
+            commit();
+        }
+    }
+
+    /**
+     * Commits all records written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        commit();
+    }
+
+    /**
+     * Commits all records written so far. Commits always force the records
+     * to storage, so this is the same as {@link #flush()}.
+     */
+    @Override
+    public void sync() throws IOException {
+        commit();
+    }
+
+    /**
+     * Gets the number of bytes written into the mapped file so far,
+     * committed or not.
+     */
+    @Override
+    public long getBytesWritten() {
+        return regionStart + region.position();
+    }
+
+    /**
+     * Commits all records written so far, and trims the file to the
+     * committed length.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+            channel.truncate(regionStart + region.position());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Forces the written records to storage, then advances the committed
+     * length in the header. The order matters: the header must never claim
+     * records that are not stored yet.
+     */
+    private void commit() throws IOException {
+        region.force();
+
+        long end = regionStart + region.position();
+        header.putLong(BinaryRecordFormat.COMMITTED_LENGTH_POSITION,
+                       end - BinaryRecordFormat.HEADER_LENGTH);
+        header.force();
+
+        uncommitted = 0;
+    }
+
+    /**
+     * Maps the next region of the file, growing the file as needed. The
+     * previous region is forced first, so that a later commit only needs to
+     * force the current region.
+     */
+    private void mapRegion(long position) throws IOException {
+        if (region != null) {
+            region.force();
+        }
+
+        regionStart = position;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE);
+    }
+}
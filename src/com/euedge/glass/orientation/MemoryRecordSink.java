@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * A sink that keeps the most recent records of the current (or the last)
+ * recording in memory, in a fixed size {@link RecordBuffer}, overwriting the
+ * oldest ones. The records can be copied out from any thread.
+ */
+public class MemoryRecordSink implements RecordSink {
+
+    private final RecordBuffer buffer;
+
+    private final OrientationRecord scratch = new OrientationRecord();
+
+    /**
+     * Creates an in-memory sink.
+     *
+     * @param capacity the number of records to keep
+     */
+    public MemoryRecordSink(int capacity) {
+        buffer = new RecordBuffer(capacity);
+    }
+
+    /**
+     * Drops the records of the previous recording, and starts keeping the
+     * records of a new one.
+     */
+    @Override
+    public RecordWriter open(long startTime) {
+        synchronized (buffer) {
+            buffer.clear();
+        }
+
+        return new RecordWriter() {
+            @Override
+            public void write(OrientationRecord record) {
+                synchronized (buffer) {
+                    buffer.addOverwriting(record);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void sync() {
+            }
+
+            @Override
+            public long getBytesWritten() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Copies the records kept so far.
+     *
+     * @return a copy of the records, oldest first
+     */
+    public RecordBuffer snapshot() {
+        synchronized (buffer) {
+            RecordBuffer copy = new RecordBuffer(Math.max(1, buffer.size()));
+            for (int i = 0; i < buffer.size(); ++i) {
+                buffer.get(i, scratch);
+                copy.add(scratch);
+            }
+
+            return copy;
+        }
+    }
+}
@@ -119,4 +119,14 @@ public interface OrientationManager {
 	 */
 	public Location getLocation();
 
+	/**
+	 * Gets the time the last update was measured at, in nanoseconds elapsed since boot (the
+	 * time base of {@code SystemClock.elapsedRealtimeNanos()}). While listeners are notified of
+	 * an update, this is the time of that update, as reported by the sensor or the location
+	 * provider.
+	 *
+	 * @return the time of the last update, in nanoseconds
+	 */
+	public long getTimestamp();
+
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * A single recorded event: an orientation ('O'), location ('L') or compass
+ * accuracy ('A') change. Instances are mutable, so that readers and writers
+ * can reuse one instance instead of allocating an object per record.
+ */
+public class OrientationRecord {
+
+    public static final char TYPE_ORIENTATION = 'O';
+
+    public static final char TYPE_LOCATION = 'L';
+
+    public static final char TYPE_ACCURACY = 'A';
+
+    /**
+     * The number of nanoseconds in a millisecond. Recordings made before
+     * offsets were recorded in nanoseconds are converted with this on read.
+     */
+    public static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The time of the event, in nanoseconds since the start of the recording. */
+    public long offset;
+
+    /** The type of the record, one of the TYPE_ constants. */
+    public char type;
+
+    public float heading;
+
+    public float pitch;
+
+    public float roll;
+
+    public double latitude;
+
+    public double longitude;
+
+    public double altitude;
+
+    public float bearing;
+
+    public float speed;
+
+    public float accuracy;
+
+    public boolean hasInterference;
+
+    public void setOrientation(long offset, float heading, float pitch, float roll) {
+        this.offset  = offset;
+        this.type    = TYPE_ORIENTATION;
+        this.heading = heading;
+        this.pitch   = pitch;
+        this.roll    = roll;
+    }
+
+    public void setLocation(long offset, double latitude, double longitude,
+                            double altitude, float bearing, float speed,
+                            float accuracy) {
+        this.offset    = offset;
+        this.type      = TYPE_LOCATION;
+        this.latitude  = latitude;
+        this.longitude = longitude;
+        this.altitude  = altitude;
+        this.bearing   = bearing;
+        this.speed     = speed;
+        this.accuracy  = accuracy;
+    }
+
+    public void setAccuracy(long offset, boolean hasInterference) {
+        this.offset          = offset;
+        this.type            = TYPE_ACCURACY;
+        this.hasInterference = hasInterference;
+    }
+
+    /**
+     * Copies all fields of another record into this one.
+     *
+     * @param other the record to copy
+     */
+    public void set(OrientationRecord other) {
+        offset          = other.offset;
+        type            = other.type;
+        heading         = other.heading;
+        pitch           = other.pitch;
+        roll            = other.roll;
+        latitude        = other.latitude;
+        longitude       = other.longitude;
+        altitude        = other.altitude;
+        bearing         = other.bearing;
+        speed           = other.speed;
+        accuracy        = other.accuracy;
+        hasInterference = other.hasInterference;
+    }
+
+    /**
+     * Tells if another record holds the same event: the same type, offset
+     * and the fields of that type.
+     *
+     * @param other the record to compare to
+     * @return true if the records hold the same event
+     */
+    public boolean isSameAs(OrientationRecord other) {
+        if (type != other.type || offset != other.offset) {
+            return false;
+        }
+
+        switch (type) {
+        case TYPE_ORIENTATION:
+            return Float.compare(heading, other.heading) == 0
+                && Float.compare(pitch, other.pitch) == 0
+                && Float.compare(roll, other.roll) == 0;
+        case TYPE_LOCATION:
+            return Double.compare(latitude, other.latitude) == 0
+                && Double.compare(longitude, other.longitude) == 0
+                && Double.compare(altitude, other.altitude) == 0
+                && Float.compare(bearing, other.bearing) == 0
+                && Float.compare(speed, other.speed) == 0
+                && Float.compare(accuracy, other.accuracy) == 0;
+        case TYPE_ACCURACY:
+            return hasInterference == other.hasInterference;
+        default:
+            return true;
+        }
+    }
+}
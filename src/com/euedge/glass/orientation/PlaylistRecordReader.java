@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads several recordings one after the other, as if they were a single
+ * recording. The offsets of each recording are shifted to continue from
+ * the end of the one before, one update interval after its last update, so
+ * a replay moves from one recording to the next without a jump in time.
+ * <p>
+ * While a recording is read, the next one is opened and the head of it is
+ * decoded on an executor, so that switching to it doesn't wait for opening,
+ * mapping or decompressing the file.
+ */
+public class PlaylistRecordReader implements RecordReader {
+
+    /** The number of records of the next recording decoded in advance. */
+    public static final int PREFETCH_RECORDS = 256;
+
+    private final List<File> files;
+
+    private final ExecutorService executor;
+
+    private int current = -1;
+
+    private RecordReader reader;
+
+    /** The decoded head of the current recording, read before the reader. */
+    private RecordBuffer head;
+
+    private int headPosition;
+
+    private Future<Prefetch> prefetch;
+
+    /** The offset the current recording is shifted by. */
+    private long base;
+
+    private long lastOffset;
+
+    private long lastInterval;
+
+    /**
+     * An opened recording, with its first records decoded.
+     */
+    private static class Prefetch {
+        final RecordReader reader;
+        final RecordBuffer head;
+
+        Prefetch(RecordReader reader, RecordBuffer head) {
+            this.reader = reader;
+            this.head   = head;
+        }
+    }
+
+    /**
+     * Creates a reader of a playlist.
+     *
+     * @param files the recordings to read, in order, in any of the formats
+     *        {@link RecordingFormat#openReader(File)} can read
+     * @param executor the executor to open the next recording on
+     */
+    public PlaylistRecordReader(List<File> files, ExecutorService executor) {
+        this.files    = new ArrayList<File>(files);
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the index of the recording being read.
+     *
+     * @return the index in the playlist, or -1 before the first read
+     */
+    public int getCurrentIndex() {
+        return current;
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) throws IOException {
+        while (true) {
+            if (head != null && headPosition < head.size()) {
+                head.get(headPosition++, record);
+                return shift(record);
+            }
+            if (reader != null && reader.read(record)) {
+                return shift(record);
+            }
+            if (!next()) {
+                return false;
+            }
+        }
+    }
+
+    private boolean shift(OrientationRecord record) {
+        record.offset += base;
+        if (record.offset > lastOffset) {
+            lastInterval = record.offset - lastOffset;
+            lastOffset   = record.offset;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the current recording, switches to the prefetched next one,
+     * and starts prefetching the one after.
+     *
+     * @return false if there are no more recordings
+     */
+    private boolean next() throws IOException {
+        closeCurrent();
+
+        if (current >= 0) {
+            base = lastOffset + lastInterval;
+        }
+        ++current;
+        if (current >= files.size()) {
+            return false;
+        }
+
+        Prefetch opened;
+        if (prefetch != null) {
+            opened = await(prefetch);
+            prefetch = null;
+        } else {
+            opened = open(files.get(current));
+        }
+        reader       = opened.reader;
+        head         = opened.head;
+        headPosition = 0;
+
+        if (current + 1 < files.size()) {
+            final File nextFile = files.get(current + 1);
+            prefetch = executor.submit(new Callable<Prefetch>() {
+                @Override
+                public Prefetch call() throws IOException {
+                    return open(nextFile);
+                }
+            });
+        }
+
+        return true;
+    }
+
+    /**
+     * Opens a recording, and decodes its first records.
+     */
+    private static Prefetch open(File file) throws IOException {
+        RecordReader reader = RecordingFormat.openReader(file);
+        RecordBuffer head = new RecordBuffer(PREFETCH_RECORDS);
+        OrientationRecord record = new OrientationRecord();
+        try {
+            while (!head.isFull() && reader.read(record)) {
+                head.add(record);
+            }
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+
+        return new Prefetch(reader, head);
+    }
+
+    private static Prefetch await(Future<Prefetch> prefetch) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return prefetch.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("can't open the next recording: " + e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeCurrent() throws IOException {
+        head = null;
+        if (reader != null) {
+            RecordReader closed = reader;
+            reader = null;
+            closed.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeCurrent();
+        } finally {
+            if (prefetch != null) {
+                Future<Prefetch> pending = prefetch;
+                prefetch = null;
+                try {
+                    await(pending).reader.close();
+                } catch (IOException e) {
+                    // the next recording was never read
+                }
+            }
+        }
+    }
+}
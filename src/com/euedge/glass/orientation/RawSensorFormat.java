@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * Layout of raw sensor captures. All values are big endian.
+ *
+ * <pre>
+ * header:
+ *   int   magic            'OMRF'
+ *   short version
+ *   short header length    (bytes, including magic and version)
+ *   long  start time       (wall clock, milliseconds)
+ *
+ * records, one after the other, each starting with its kind byte, with
+ * offsets in nanoseconds:
+ *   'S' int sensor type, byte accuracy, byte value count, long offset,
+ *       float values[value count]
+ *   'A' int sensor type, byte accuracy, long offset
+ *   'L' long offset, double latitude, double longitude, double altitude,
+ *       float bearing, float speed, float accuracy,
+ *       long time              (wall clock of the fix, milliseconds)
+ * </pre>
+ *
+ * Readers skip any header bytes beyond the ones they know about.
+ *
+ * Version 1 wrote the sensor type as an unsigned byte, which truncated the
+ * vendor sensor types; readers still accept it.
+ */
+final class RawSensorFormat {
+
+    static final int MAGIC = 0x4F4D5246;
+
+    static final short VERSION = 2;
+
+    /** The version that wrote the sensor type as a byte. */
+    static final short VERSION_BYTE_SENSOR_TYPE = 1;
+
+    static final short HEADER_LENGTH = 16;
+
+    private RawSensorFormat() {
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads raw sensor captures written by {@link RawSensorWriter}.
+ */
+public class RawSensorReader {
+
+    private DataInputStream in;
+
+    private long startTime;
+
+    private short version;
+
+    public RawSensorReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+
+        if (this.in.readInt() != RawSensorFormat.MAGIC) {
+            throw new IOException("not a raw sensor capture");
+        }
+        version = this.in.readShort();
+        if (version < 1 || version > RawSensorFormat.VERSION) {
+            throw new IOException("unsupported raw sensor capture version: " + version);
+        }
+        int headerLength = this.in.readShort();
+        startTime = this.in.readLong();
+        this.in.skipBytes(headerLength - RawSensorFormat.HEADER_LENGTH);
+    }
+
+    /**
+     * Gets the wall clock time the capture was started at.
+     *
+     * @return the start time, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param record the record to fill
+     * @return false at the end of the capture
+     */
+    public boolean read(RawSensorRecord record) throws IOException {
+        int kind = in.read();
+        if (kind < 0) {
+            return false;
+        }
+
+        // a record cut short by a crash ends the capture
+        try {
+            switch (kind) {
+            case RawSensorRecord.KIND_SAMPLE:
+                int sensorType = readSensorType();
+                int accuracy   = in.readByte();
+                int valueCount = in.readUnsignedByte();
+                if (valueCount > RawSensorRecord.MAX_VALUES) {
+                    throw new IOException("too many sensor values: " + valueCount);
+                }
+                record.offset     = in.readLong();
+                record.kind       = RawSensorRecord.KIND_SAMPLE;
+                record.sensorType = sensorType;
+                record.accuracy   = accuracy;
+                record.valueCount = valueCount;
+                for (int i = 0; i < valueCount; ++i) {
+                    record.values[i] = in.readFloat();
+                }
+                break;
+            case RawSensorRecord.KIND_ACCURACY:
+                sensorType = readSensorType();
+                accuracy   = in.readByte();
+                record.setAccuracy(in.readLong(), sensorType, accuracy);
+                break;
+            case RawSensorRecord.KIND_LOCATION:
+                record.setLocation(in.readLong(),
+                                   in.readDouble(),
+                                   in.readDouble(),
+                                   in.readDouble(),
+                                   in.readFloat(),
+                                   in.readFloat(),
+                                   in.readFloat(),
+                                   in.readLong());
+                break;
+            default:
+                throw new IOException("unknown raw record kind: " + kind);
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    private int readSensorType() throws IOException {
+        if (version == RawSensorFormat.VERSION_BYTE_SENSOR_TYPE) {
+            return in.readUnsignedByte();
+        }
+        return in.readInt();
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
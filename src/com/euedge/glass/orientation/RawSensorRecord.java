@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * A single raw capture event: a sensor sample ('S') with its untouched
+ * values, a change in the accuracy of a sensor ('A'), or a location fix
+ * ('L'). Instances are mutable and reused, like {@link OrientationRecord}.
+ */
+public class RawSensorRecord {
+
+    public static final char KIND_SAMPLE = 'S';
+
+    public static final char KIND_ACCURACY = 'A';
+
+    public static final char KIND_LOCATION = 'L';
+
+    /** The maximum number of values of a sensor sample. */
+    public static final int MAX_VALUES = 16;
+
+    /** The time of the event, in nanoseconds since the start of the recording. */
+    public long offset;
+
+    /** The kind of the record, one of the KIND_ constants. */
+    public char kind;
+
+    /** The type of the sensor, one of the {@code Sensor.TYPE_} constants. */
+    public int sensorType;
+
+    /** The accuracy of the sensor, one of the {@code SensorManager.SENSOR_STATUS_} constants. */
+    public int accuracy;
+
+    /** The number of valid entries in {@link #values}. */
+    public int valueCount;
+
+    public final float[] values = new float[MAX_VALUES];
+
+    public double latitude;
+
+    public double longitude;
+
+    public double altitude;
+
+    public float bearing;
+
+    public float speed;
+
+    public float locationAccuracy;
+
+    /** The wall clock time of the location fix, in milliseconds since the epoch. */
+    public long time;
+
+    /**
+     * Copies another record into this one.
+     *
+     * @param other the record to copy
+     */
+    public void set(RawSensorRecord other) {
+        offset           = other.offset;
+        kind             = other.kind;
+        sensorType       = other.sensorType;
+        accuracy         = other.accuracy;
+        valueCount       = other.valueCount;
+        System.arraycopy(other.values, 0, values, 0, other.valueCount);
+        latitude         = other.latitude;
+        longitude        = other.longitude;
+        altitude         = other.altitude;
+        bearing          = other.bearing;
+        speed            = other.speed;
+        locationAccuracy = other.locationAccuracy;
+        time             = other.time;
+    }
+
+    public void setSample(long offset, int sensorType, int accuracy,
+                          float[] values, int valueCount) {
+        this.offset     = offset;
+        this.kind       = KIND_SAMPLE;
+        this.sensorType = sensorType;
+        this.accuracy   = accuracy;
+        this.valueCount = Math.min(valueCount, MAX_VALUES);
+        System.arraycopy(values, 0, this.values, 0, this.valueCount);
+    }
+
+    public void setAccuracy(long offset, int sensorType, int accuracy) {
+        this.offset     = offset;
+        this.kind       = KIND_ACCURACY;
+        this.sensorType = sensorType;
+        this.accuracy   = accuracy;
+        this.valueCount = 0;
+    }
+
+    public void setLocation(long offset, double latitude, double longitude,
+                            double altitude, float bearing, float speed,
+                            float locationAccuracy, long time) {
+        this.offset           = offset;
+        this.kind             = KIND_LOCATION;
+        this.latitude         = latitude;
+        this.longitude        = longitude;
+        this.altitude         = altitude;
+        this.bearing          = bearing;
+        this.speed            = speed;
+        this.locationAccuracy = locationAccuracy;
+        this.time             = time;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes raw sensor captures in the binary format described by
+ * {@link RawSensorFormat}.
+ */
+public class RawSensorWriter {
+
+    /** The file name extension of raw sensor captures. */
+    public static final String EXTENSION = ".omr";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DataOutputStream out;
+
+    public RawSensorWriter(OutputStream out, long startTime) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+
+        this.out.writeInt(RawSensorFormat.MAGIC);
+        this.out.writeShort(RawSensorFormat.VERSION);
+        this.out.writeShort(RawSensorFormat.HEADER_LENGTH);
+        this.out.writeLong(startTime);
+    }
+
+    public void write(RawSensorRecord record) throws IOException {
+        switch (record.kind) {
+        case RawSensorRecord.KIND_SAMPLE:
+            out.writeByte(record.kind);
+            out.writeInt(record.sensorType);
+            out.writeByte(record.accuracy);
+            out.writeByte(record.valueCount);
+            out.writeLong(record.offset);
+            for (int i = 0; i < record.valueCount; ++i) {
+                out.writeFloat(record.values[i]);
+            }
+            break;
+        case RawSensorRecord.KIND_ACCURACY:
+            out.writeByte(record.kind);
+            out.writeInt(record.sensorType);
+            out.writeByte(record.accuracy);
+            out.writeLong(record.offset);
+            break;
+        case RawSensorRecord.KIND_LOCATION:
+            out.writeByte(record.kind);
+            out.writeLong(record.offset);
+            out.writeDouble(record.latitude);
+            out.writeDouble(record.longitude);
+            out.writeDouble(record.altitude);
+            out.writeFloat(record.bearing);
+            out.writeFloat(record.speed);
+            out.writeFloat(record.locationAccuracy);
+            out.writeLong(record.time);
+            break;
+        default:
+            throw new IOException("unknown raw record kind: " + record.kind);
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.flush();
+        out.close();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * A fixed capacity ring of records, stored in preallocated primitive
+ * columns so that adding and removing records never allocates.
+ * <p>
+ * Orientation records keep heading, pitch and roll in the float columns,
+ * location records keep latitude, longitude and altitude in the double
+ * columns and bearing, speed and accuracy in the float columns, while
+ * accuracy records keep the interference flag in the first float column.
+ * <p>
+ * The class is not thread safe.
+ */
+public class RecordBuffer {
+
+    /**
+     * The bytes the columns take for each record: an offset, a type, three
+     * floats and three doubles.
+     */
+    public static final int BYTES_PER_RECORD = 8 + 2 + 3 * 4 + 3 * 8;
+
+    private final long[] offsets;
+
+    private final char[] types;
+
+    private final float[] floats0;
+
+    private final float[] floats1;
+
+    private final float[] floats2;
+
+    private final double[] doubles0;
+
+    private final double[] doubles1;
+
+    private final double[] doubles2;
+
+    private int head;
+
+    private int size;
+
+    public RecordBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        offsets  = new long[capacity];
+        types    = new char[capacity];
+        floats0  = new float[capacity];
+        floats1  = new float[capacity];
+        floats2  = new float[capacity];
+        doubles0 = new double[capacity];
+        doubles1 = new double[capacity];
+        doubles2 = new double[capacity];
+    }
+
+    public int capacity() {
+        return offsets.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the memory the columns of the buffer take, for its whole
+     * capacity.
+     *
+     * @return the size of the columns, in bytes
+     */
+    public long getMemoryFootprint() {
+        return (long) capacity() * BYTES_PER_RECORD;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == offsets.length;
+    }
+
+    /**
+     * Appends a record after the newest one.
+     *
+     * @param record the record to append
+     * @throws IllegalStateException if the buffer is full
+     */
+    public void add(OrientationRecord record) {
+        if (isFull()) {
+            throw new IllegalStateException("buffer is full");
+        }
+
+        int ix = index(size++);
+        offsets[ix] = record.offset;
+        types[ix]   = record.type;
+
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            floats0[ix] = record.heading;
+            floats1[ix] = record.pitch;
+            floats2[ix] = record.roll;
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            doubles0[ix] = record.latitude;
+            doubles1[ix] = record.longitude;
+            doubles2[ix] = record.altitude;
+            floats0[ix]  = record.bearing;
+            floats1[ix]  = record.speed;
+            floats2[ix]  = record.accuracy;
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            floats0[ix] = record.hasInterference ? 1.0f : 0.0f;
+            break;
+        default:
+        }
+    }
+
+    /**
+     * Appends a record after the newest one, dropping the oldest record if
+     * the buffer is full.
+     *
+     * @param record the record to append
+     * @return true if the oldest record was dropped to make room
+     */
+    public boolean addOverwriting(OrientationRecord record) {
+        boolean full = isFull();
+        if (full) {
+            removeFirst(1);
+        }
+        add(record);
+
+        return full;
+    }
+
+    /**
+     * Copies a record out of the buffer.
+     *
+     * @param i the index of the record, 0 being the oldest one
+     * @param record the record to fill
+     */
+    public void get(int i, OrientationRecord record) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int ix = index(i);
+        long offset = offsets[ix];
+
+        switch (types[ix]) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            record.setOrientation(offset, floats0[ix], floats1[ix], floats2[ix]);
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            record.setLocation(offset, doubles0[ix], doubles1[ix], doubles2[ix],
+                               floats0[ix], floats1[ix], floats2[ix]);
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            record.setAccuracy(offset, floats0[ix] != 0.0f);
+            break;
+        default:
+            record.offset = offset;
+            record.type   = types[ix];
+        }
+    }
+
+    /**
+     * Gets the offset of a record without copying the whole record.
+     *
+     * @param i the index of the record, 0 being the oldest one
+     * @return the offset of the record
+     */
+    public long getOffset(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return offsets[index(i)];
+    }
+
+    /**
+     * Removes the oldest records.
+     *
+     * @param count the number of records to remove
+     */
+    public void removeFirst(int count) {
+        if (count < 0 || count > size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        head = index(count);
+        size -= count;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int index(int i) {
+        int ix = head + i;
+        return ix < offsets.length ? ix : ix - offsets.length;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of records between exactly one producer thread and one
+ * consumer thread. The records are preallocated: the producer decodes
+ * straight into a claimed slot and publishes it, the consumer copies it
+ * out. Neither side takes a lock; a side that finds the queue full (or
+ * empty) parks until the other side makes progress.
+ */
+final class RecordQueue {
+
+    private final OrientationRecord[] slots;
+
+    private final int mask;
+
+    /** The number of records published so far, written by the producer. */
+    private volatile long writeIndex;
+
+    /** The number of records taken so far, written by the consumer. */
+    private volatile long readIndex;
+
+    private volatile boolean finished;
+
+    private volatile Thread parkedProducer;
+
+    private volatile Thread parkedConsumer;
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity the number of records the queue holds, rounded up to
+     *        a power of two
+     */
+    RecordQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new OrientationRecord[size];
+        for (int i = 0; i < size; ++i) {
+            slots[i] = new OrientationRecord();
+        }
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Gets the number of records waiting in the queue.
+     */
+    int size() {
+        return (int) (writeIndex - readIndex);
+    }
+
+    /**
+     * Claims the next free slot for the producer to fill, waiting while
+     * the queue is full.
+     *
+     * @return the slot to fill and then {@link #publish()}, or null if the
+     *         producer was interrupted
+     */
+    OrientationRecord claim() {
+        while (writeIndex - readIndex == slots.length) {
+            parkedProducer = Thread.currentThread();
+            if (writeIndex - readIndex == slots.length) {
+                LockSupport.park(this);
+            }
+            parkedProducer = null;
+            if (Thread.interrupted()) {
+                return null;
+            }
+        }
+
+        return slots[(int) writeIndex & mask];
+    }
+
+    /**
+     * Hands the slot last claimed by the producer to the consumer.
+     */
+    void publish() {
+        writeIndex = writeIndex + 1;
+        wake(parkedConsumer);
+    }
+
+    /**
+     * Tells the consumer that no more records will be published.
+     */
+    void finish() {
+        finished = true;
+        wake(parkedConsumer);
+    }
+
+    /**
+     * Copies the next record out of the queue, waiting while the queue is
+     * empty.
+     *
+     * @param record the record to copy into
+     * @return false if the queue is empty and finished, or the consumer was
+     *         interrupted
+     */
+    boolean take(OrientationRecord record) {
+        while (writeIndex == readIndex) {
+            if (finished) {
+                // records published before finishing are visible by now
+                if (writeIndex == readIndex) {
+                    return false;
+                }
+                break;
+            }
+            parkedConsumer = Thread.currentThread();
+            if (writeIndex == readIndex && !finished) {
+                LockSupport.park(this);
+            }
+            parkedConsumer = null;
+            if (Thread.interrupted()) {
+                return false;
+            }
+        }
+
+        record.set(slots[(int) readIndex & mask]);
+        readIndex = readIndex + 1;
+        wake(parkedProducer);
+
+        return true;
+    }
+
+    /**
+     * Copies the first record of a type waiting in the queue, without
+     * taking it. Only the consumer may peek.
+     *
+     * @param type the type of the record to look for
+     * @param record the record to copy into
+     * @return false if no record of the type is waiting
+     */
+    boolean peek(char type, OrientationRecord record) {
+        long end = writeIndex;
+        for (long i = readIndex; i < end; ++i) {
+            OrientationRecord slot = slots[(int) i & mask];
+            if (slot.type == type) {
+                record.set(slot);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
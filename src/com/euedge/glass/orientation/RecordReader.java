@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A source of recorded orientation, location and accuracy events.
+ */
+public interface RecordReader {
+
+    /**
+     * Reads the next record.
+     *
+     * @param record the record to fill with the data read
+     * @return true if a record was read, false at the end of the recording
+     */
+    public boolean read(OrientationRecord record) throws IOException;
+
+    /**
+     * Closes the reader.
+     */
+    public void close() throws IOException;
+}
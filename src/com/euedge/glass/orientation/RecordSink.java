@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A consumer of recordings besides the recording file: an in-memory buffer,
+ * a socket, or another file. A sink is opened for each recording, and is
+ * handed the same records as the recording file, see
+ * {@link RecordingOrientationManager#addSink(RecordSink, int, AsyncRecordWriter.OverflowPolicy)}.
+ */
+public interface RecordSink {
+
+    /**
+     * Opens the sink for a new recording.
+     *
+     * @param startTime the wall clock time the recording started at
+     * @return the writer to hand the records of the recording to, closed
+     *         when the recording stops
+     */
+    public RecordWriter open(long startTime) throws IOException;
+}
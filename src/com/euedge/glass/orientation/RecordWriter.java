@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A destination of recorded orientation, location and accuracy events.
+ */
+public interface RecordWriter {
+
+    /**
+     * Writes a record. The record is not retained, the caller may reuse it
+     * once this method returns.
+     *
+     * @param record the record to write
+     */
+    public void write(OrientationRecord record) throws IOException;
+
+    /**
+     * Flushes any buffered records to the underlying storage.
+     */
+    public void flush() throws IOException;
+
+    /**
+     * Flushes, and forces the records written so far to the storage
+     * device, so that they survive losing power, not only the process.
+     */
+    public void sync() throws IOException;
+
+    /**
+     * Gets the number of bytes handed to the underlying storage so far.
+     * Records still held in buffers are not counted.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten();
+
+    /**
+     * Flushes and closes the writer.
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The file formats recordings can be stored in. The file extension of a
+ * recording is used to pick the right reader on replay, formats sharing an
+ * extension can be read by the same reader.
+ */
+public enum RecordingFormat {
+
+    /** The original comma separated text format. */
+    CSV(".om") {
+        @Override
+        public RecordWriter newWriter(File file, long startTime) throws IOException {
+            return new CsvRecordWriter(new FileOutputStream(file));
+        }
+
+        @Override
+        public RecordReader newReader(File file) throws IOException {
+            return new MappedRecordReader(file);
+        }
+    },
+
+    /** A compact, fixed width binary format, see {@link BinaryRecordFormat}. */
+    BINARY(".omb") {
+        @Override
+        public RecordWriter newWriter(File file, long startTime) throws IOException {
+            return new BinaryRecordWriter(new FileOutputStream(file), startTime);
+        }
+
+        @Override
+        public RecordReader newReader(File file) throws IOException {
+            return new MappedRecordReader(file);
+        }
+    },
+
+    /**
+     * The same file layout as {@link #BINARY}, written through a memory
+     * mapped region and committed in batches, see {@link MappedRecordWriter}.
+     */
+    BINARY_MAPPED(".omb") {
+        @Override
+        public RecordWriter newWriter(File file, long startTime) throws IOException {
+            return new MappedRecordWriter(file, startTime);
+        }
+
+        @Override
+        public RecordReader newReader(File file) throws IOException {
+            return BINARY.newReader(file);
+        }
+    },
+
+    /**
+     * A compressed, columnar format using delta-of-delta encoded offsets
+     * and XOR encoded values, see {@link ColumnarRecordFormat}.
+     */
+    COLUMNAR(".omc") {
+        @Override
+        public RecordWriter newWriter(File file, long startTime) throws IOException {
+            return new ColumnarRecordWriter(new FileOutputStream(file), startTime);
+        }
+
+        @Override
+        public RecordReader newReader(File file) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                return new ColumnarRecordReader(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+    },
+
+    /**
+     * Blocks of binary records, each compressed on its own, followed by an
+     * index of the blocks that allows seeking, see {@link BlockRecordFormat}.
+     */
+    BLOCK_COMPRESSED(".omz") {
+        @Override
+        public RecordWriter newWriter(File file, long startTime) throws IOException {
+            return new BlockRecordWriter(new FileOutputStream(file), startTime);
+        }
+
+        @Override
+        public RecordReader newReader(File file) throws IOException {
+            return new BlockRecordReader(file);
+        }
+    };
+
+    private final String extension;
+
+    private RecordingFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Gets the file name extension of recordings in this format.
+     *
+     * @return the extension, including the leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Creates a writer that records into the specified file.
+     *
+     * @param file the file to record into
+     * @param startTime the wall clock time the recording started at
+     * @return a new writer
+     */
+    public abstract RecordWriter newWriter(File file, long startTime) throws IOException;
+
+    /**
+     * Creates a reader for a recording in this format.
+     *
+     * @param file the recording to read
+     * @return a new reader
+     */
+    public abstract RecordReader newReader(File file) throws IOException;
+
+    /**
+     * Finds the format of a recording based on its file name.
+     *
+     * @param fileName the name of the recording
+     * @return the format of the recording, or null if the name does not
+     *         denote a recording
+     */
+    public static RecordingFormat forFileName(String fileName) {
+        for (RecordingFormat format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells if a file is a recording that can be replayed: either a
+     * recording in one of the formats, the manifest of a segmented
+     * recording, or a raw sensor capture.
+     *
+     * @param fileName the name of the file
+     * @return true if the file can be opened by {@link #openReader(File)}
+     */
+    public static boolean isRecording(String fileName) {
+        return forFileName(fileName) != null
+            || fileName.endsWith(SegmentingRecordWriter.MANIFEST_EXTENSION)
+            || fileName.endsWith(RawSensorWriter.EXTENSION);
+    }
+
+    /**
+     * Opens a recording for reading, using the format denoted by its name.
+     * Raw sensor captures are read through {@link RotationVectorFusion}.
+     *
+     * @param file the recording to read
+     * @return a new reader
+     */
+    public static RecordReader openReader(File file) throws IOException {
+        if (file.getName().endsWith(SegmentingRecordWriter.MANIFEST_EXTENSION)) {
+            return new SegmentedRecordReader(file);
+        }
+        if (file.getName().endsWith(RawSensorWriter.EXTENSION)) {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                return new RefusingRecordReader(new RawSensorReader(in),
+                                                new RotationVectorFusion());
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        RecordingFormat format = forFileName(file.getName());
+        if (format == null) {
+            throw new IOException("unknown recording format: " + file.getName());
+        }
+
+        return format.newReader(file);
+    }
+}
@@ -15,10 +15,14 @@
  */
 package com.euedge.glass.orientation;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.location.Location;
 
@@ -30,6 +34,12 @@ public class RecordingOrientationManager implements OrientationManager {
 
     public static final String EXTENSION = ".om";
     
+    /**
+     * The default number of records buffered between the sensor callbacks
+     * and the writer thread.
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+    
 	private OrientationManager orientationManager;
 	
 	private File baseDir;
@@ -38,10 +48,83 @@ public class RecordingOrientationManager implements OrientationManager {
 	
 	private boolean isRecording;
 	
-	private BufferedWriter writer;
+	private RecordingFormat format = RecordingFormat.CSV;
+	
+	private RecordWriter writer;
+	
+	private AsyncRecordWriter asyncWriter;
+	
+	private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+	
+	private AsyncRecordWriter.OverflowPolicy overflowPolicy =
+	        AsyncRecordWriter.OverflowPolicy.DROP_OLDEST;
+	
+	private long droppedCount;
+	
+	private final List<Sink> sinks = new ArrayList<Sink>();
+	
+	private AsyncRecordWriter[] sinkWriters = new AsyncRecordWriter[0];
+	
+	private long maxSegmentDuration;
+	
+	private long maxSegmentBytes;
+	
+	private float headingDeadband;
+	
+	private float pitchDeadband;
+	
+	private float rollDeadband;
+	
+	private long minOrientationInterval;
+	
+	private long keyframeInterval;
+	
+	private DeadbandRecordWriter deadbandWriter;
+	
+	private long filteredCount;
+	
+	private FlushPolicy flushPolicy = FlushPolicy.ON_CLOSE;
+	
+	/** Kept after the recording stops, for its statistics. */
+	private volatile FlushingRecordWriter flushingWriter;
+	
+	private final OrientationRecord record = new OrientationRecord();
+	
+	private volatile FlightRecorder flightRecorder;
+	
+	/** Writes the saved flight recordings, one after the other. */
+	private static ExecutorService saveExecutor;
+	
+	private boolean rawCapture;
+	
+	private AsyncRawSensorWriter rawWriter;
+	
+	private final RawSensorRecord rawRecord = new RawSensorRecord();
+	
+	private SensorsOrientationManager.RawSensorListener rawSensorListener =
+	        new SensorsOrientationManager.RawSensorListener() {
+	    
+	    @Override
+	    public void onRawSensorChanged(int sensorType, long timestamp,
+	                                   int accuracy, float[] values) {
+	        rawRecord.setSample(getOffset(timestamp), sensorType, accuracy,
+	                            values, values.length);
+	        writeRaw();
+	    }
+	    
+	    @Override
+	    public void onRawAccuracyChanged(int sensorType, long timestamp,
+	                                     int accuracy) {
+	        rawRecord.setAccuracy(getOffset(timestamp), sensorType, accuracy);
+	        writeRaw();
+	    }
+	};
 	
 	private long startTime;
 	
+	/** The elapsed realtime the recording started at, in nanoseconds. */
+	private long startTimestamp;
+	
 	private OnChangedListener changeListener = new OnChangedListener() {
 
         @Override
@@ -51,7 +134,7 @@ public class RecordingOrientationManager implements OrientationManager {
 
         @Override
         public void onLocationChanged(OrientationManager orientationManager) {
-            writeLocation(orientationManager);
+            writeLocation(orientationManager, orientationManager.getTimestamp());
         }
 
         @Override
@@ -132,20 +215,337 @@ public class RecordingOrientationManager implements OrientationManager {
 		
 		// trigger a location statement if we have a 'last known location' at start
 		if (orientationManager.hasLocation()) {
-		    writeLocation(orientationManager);
+		    writeLocation(orientationManager, ElapsedRealtime.nanos());
 		}
 	}
 	
+	/**
+	 * Sets the format of the recordings started after this call.
+	 * 
+	 * @param format the format to record in
+	 */
+	public void setFormat(RecordingFormat format) {
+	    this.format = format;
+	}
+	
+	public RecordingFormat getFormat() {
+	    return format;
+	}
+	
+	/**
+	 * Sets up the buffer between the sensor callbacks and the thread writing
+	 * the recording, for the recordings started after this call.
+	 * 
+	 * @param capacity the number of records to buffer, or 0 to write on the
+	 *        sensor callback thread directly
+	 * @param overflowPolicy what to do with records arriving when the
+	 *        buffer is full
+	 */
+	public void setWriteBuffer(int capacity,
+	                           AsyncRecordWriter.OverflowPolicy overflowPolicy) {
+	    this.bufferCapacity = capacity;
+	    this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Gets the number of records dropped in the current (or the last)
+	 * recording because the write buffer was full, including the raw sensor
+	 * records dropped by the raw capture.
+	 * 
+	 * @return the number of dropped records
+	 */
+	public long getDroppedCount() {
+	    AsyncRecordWriter w = asyncWriter;
+	    AsyncRecordWriter[] s = sinkWriters;
+	    AsyncRawSensorWriter r = rawWriter;
+	    
+	    // droppedCount holds the drops of the writers already closed
+	    long count = droppedCount;
+	    if (w != null) {
+	        count += w.getDroppedCount();
+	    }
+	    for (AsyncRecordWriter sinkWriter : s) {
+	        count += sinkWriter.getDroppedCount();
+	    }
+	    if (r != null) {
+	        count += r.getDroppedCount();
+	    }
+	    return count;
+	}
+	
+	/**
+	 * Adds a sink that the recordings started after this call are handed
+	 * to, besides the recording file. Each sink gets its own buffer and
+	 * writer thread, so that a slow sink holds up neither the recording file
+	 * nor the other sinks. A sink that fails to open is left out of the
+	 * recording.
+	 * 
+	 * @param sink the sink to add
+	 * @param capacity the number of records to buffer for the sink, or 0 to
+	 *        write to it on the sensor callback thread directly
+	 * @param overflowPolicy what to do with records arriving when the
+	 *        buffer of the sink is full
+	 */
+	public void addSink(RecordSink sink, int capacity,
+	                    AsyncRecordWriter.OverflowPolicy overflowPolicy) {
+	    sinks.add(new Sink(sink, capacity, overflowPolicy));
+	}
+	
+	/**
+	 * Removes a sink, for the recordings started after this call.
+	 * 
+	 * @param sink the sink to remove
+	 */
+	public void removeSink(RecordSink sink) {
+	    for (int i = 0; i < sinks.size(); ++i) {
+	        if (sinks.get(i).sink == sink) {
+	            sinks.remove(i);
+	            return;
+	        }
+	    }
+	}
+	
+	/**
+	 * Sets up splitting the recordings started after this call into
+	 * segments, see {@link SegmentingRecordWriter}. With both limits 0 (the
+	 * default), each recording is a single file.
+	 * 
+	 * @param maxDuration the duration after which to start a new segment,
+	 *        in milliseconds, or 0 for no limit
+	 * @param maxBytes the approximate size after which to start a new
+	 *        segment, or 0 for no limit
+	 */
+	public void setSegmentLimits(long maxDuration, long maxBytes) {
+	    this.maxSegmentDuration = maxDuration;
+	    this.maxSegmentBytes    = maxBytes;
+	}
+	
+	/**
+	 * Sets up thinning out the orientation updates of the recordings
+	 * started after this call, see {@link DeadbandRecordWriter}. With all
+	 * values 0 (the default), every update is recorded.
+	 * 
+	 * @param headingDeadband the change in heading, in degrees, below which
+	 *        an update is not recorded
+	 * @param pitchDeadband the change in pitch, in degrees, below which an
+	 *        update is not recorded
+	 * @param rollDeadband the change in roll, in degrees, below which an
+	 *        update is not recorded
+	 * @param minInterval the minimum time between two recorded updates, in
+	 *        milliseconds
+	 * @param keyframeInterval the time after which an update is recorded
+	 *        regardless of the dead-bands, in milliseconds, or 0 to never
+	 *        force a keyframe
+	 */
+	public void setOrientationFilter(float headingDeadband,
+	                                 float pitchDeadband,
+	                                 float rollDeadband,
+	                                 long minInterval,
+	                                 long keyframeInterval) {
+	    this.headingDeadband        = headingDeadband;
+	    this.pitchDeadband          = pitchDeadband;
+	    this.rollDeadband           = rollDeadband;
+	    this.minOrientationInterval = minInterval;
+	    this.keyframeInterval       = keyframeInterval;
+	}
+	
+	/**
+	 * Gets the number of orientation updates left out of the current (or
+	 * the last) recording by the orientation filter.
+	 * 
+	 * @return the number of filtered updates
+	 */
+	public long getFilteredCount() {
+	    DeadbandRecordWriter w = deadbandWriter;
+	    return w != null ? w.getFilteredCount() : filteredCount;
+	}
+	
+	/**
+	 * Sets when the recordings started after this call are flushed while
+	 * being written, see {@link FlushingRecordWriter}. By default they are
+	 * flushed only when stopped.
+	 * 
+	 * @param flushPolicy when to flush
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+	    this.flushPolicy = flushPolicy;
+	}
+	
+	public FlushPolicy getFlushPolicy() {
+	    return flushPolicy;
+	}
+	
+	/**
+	 * Gets the number of bytes written into the current (or the last)
+	 * recording. Records still buffered are not counted.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+	    FlushingRecordWriter w = flushingWriter;
+	    return w != null ? w.getBytesWritten() : 0;
+	}
+	
+	/**
+	 * Gets the number of flushes done in the current (or the last)
+	 * recording, including the final one.
+	 * 
+	 * @return the number of flushes
+	 */
+	public long getFlushCount() {
+	    FlushingRecordWriter w = flushingWriter;
+	    return w != null ? w.getFlushCount() : 0;
+	}
+	
+	/**
+	 * Gets the average time a flush took in the current (or the last)
+	 * recording.
+	 * 
+	 * @return the average time of a flush, in nanoseconds
+	 */
+	public long getAverageFlushLatency() {
+	    FlushingRecordWriter w = flushingWriter;
+	    long count = w != null ? w.getFlushCount() : 0;
+	    return count > 0 ? w.getTotalFlushLatency() / count : 0;
+	}
+	
+	/**
+	 * Gets the longest time a flush took in the current (or the last)
+	 * recording.
+	 * 
+	 * @return the longest time of a flush, in nanoseconds
+	 */
+	public long getMaxFlushLatency() {
+	    FlushingRecordWriter w = flushingWriter;
+	    return w != null ? w.getMaxFlushLatency() : 0;
+	}
+	
+	/**
+	 * Sets whether the recordings started after this call also capture the
+	 * raw sensor events, into a separate {@link RawSensorWriter#EXTENSION}
+	 * file next to the recording. The capture can be re-fused offline with
+	 * a {@link RefusingRecordReader}. Only possible when recording a
+	 * {@link SensorsOrientationManager}.
+	 * 
+	 * @param rawCapture true to capture the raw sensor events
+	 */
+	public void setRawCapture(boolean rawCapture) {
+	    this.rawCapture = rawCapture;
+	}
+	
+	/**
+	 * Sets up the flight recorder, that keeps the most recent updates in
+	 * memory whenever this manager is started, recording or not. See
+	 * {@link #saveFlightRecording(long)}.
+	 * 
+	 * @param capacity the number of updates to keep, or 0 to turn the
+	 *        flight recorder off
+	 */
+	public void setFlightRecorder(int capacity) {
+	    flightRecorder = capacity > 0 ? new FlightRecorder(capacity) : null;
+	}
+	
+	/**
+	 * Saves the updates of the last moments kept by the flight recorder
+	 * into a new recording, in the current format. Only copying the updates
+	 * happens on the calling thread, the recording is written on a shared
+	 * background thread, after any earlier saves.
+	 * 
+	 * @param duration the length of the window to save, in milliseconds
+	 * @return the file the recording is saved into, or null if the flight
+	 *         recorder is off
+	 */
+	public File saveFlightRecording(long duration) {
+	    FlightRecorder recorder = flightRecorder;
+	    if (recorder == null) {
+	        return null;
+	    }
+	    
+	    final RecordBuffer records =
+	            recorder.snapshot(duration * OrientationRecord.NANOS_PER_MILLI);
+	    final RecordingFormat saveFormat = format;
+	    final long saveStartTime = FlightRecorder.getStartTime(records);
+	    final File file = new File(baseDir, saveStartTime + saveFormat.getExtension());
+	    getSaveExecutor().execute(new Runnable() {
+	        @Override
+	        public void run() {
+	            try {
+	                FlightRecorder.save(records, file, saveFormat, saveStartTime);
+	            } catch (IOException e) {
+	                file.delete();
+	                RecordingSummary.getSummaryFile(file).delete();
+	            }
+	        }
+	    });
+	    
+	    return file;
+	}
+	
+	private static synchronized ExecutorService getSaveExecutor() {
+	    if (saveExecutor == null) {
+	        saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	            @Override
+	            public Thread newThread(Runnable task) {
+	                Thread thread = new Thread(task, "FlightRecorderSave");
+	                thread.setDaemon(true);
+	                return thread;
+	            }
+	        });
+	    }
+	    return saveExecutor;
+	}
+	
 	public void startRecording() {
 	    if (isRecording) {
 	        return;
 	    }
 	    
         try {
-            startTime = System.currentTimeMillis();
+            startTime      = System.currentTimeMillis();
+            startTimestamp = ElapsedRealtime.nanos();
             
-            writer = new BufferedWriter(new FileWriter(new File(baseDir,
-                                        (startTime + EXTENSION))));
+            File file;
+            if (maxSegmentDuration > 0 || maxSegmentBytes > 0) {
+                file = new File(baseDir, startTime + SegmentingRecordWriter.MANIFEST_EXTENSION);
+                writer = new SegmentingRecordWriter(format, baseDir, startTime,
+                                                    maxSegmentDuration
+                                                        * OrientationRecord.NANOS_PER_MILLI,
+                                                    maxSegmentBytes);
+            } else {
+                file = new File(baseDir, (startTime + format.getExtension()));
+                writer = format.newWriter(file, startTime);
+            }
+            writer = new SummarizingRecordWriter(writer, file);
+            flushingWriter = new FlushingRecordWriter(writer, flushPolicy);
+            writer = flushingWriter;
+            droppedCount = 0;
+            if (bufferCapacity > 0) {
+                asyncWriter = new AsyncRecordWriter(writer, bufferCapacity,
+                                                    overflowPolicy);
+                writer = asyncWriter;
+            }
+            if (!sinks.isEmpty()) {
+                openSinks();
+            }
+            filteredCount = 0;
+            if (headingDeadband > 0 || pitchDeadband > 0 || rollDeadband > 0
+                    || minOrientationInterval > 0) {
+                // filter on the sensor thread, so that the dropped updates
+                // don't take up room in the write buffer
+                deadbandWriter = new DeadbandRecordWriter(writer,
+                                                          headingDeadband,
+                                                          pitchDeadband,
+                                                          rollDeadband,
+                                                          minOrientationInterval
+                                                              * OrientationRecord.NANOS_PER_MILLI,
+                                                          keyframeInterval
+                                                              * OrientationRecord.NANOS_PER_MILLI);
+                writer = deadbandWriter;
+            }
+            if (rawCapture
+                    && orientationManager instanceof SensorsOrientationManager) {
+                startRawCapture((SensorsOrientationManager) orientationManager);
+            }
             isRecording = true;
         } catch (IOException e) {
         }
@@ -161,13 +561,26 @@ public class RecordingOrientationManager implements OrientationManager {
 	}
 
 	public void stopRecording() {
+	    stopRawCapture();
+	    
         if (isRecording && writer != null) {
             try {
-                writer.flush();
                 writer.close();
             } catch (IOException e) {
             }
             writer = null;
+            if (asyncWriter != null) {
+                droppedCount += asyncWriter.getDroppedCount();
+                asyncWriter = null;
+            }
+            for (AsyncRecordWriter sinkWriter : sinkWriters) {
+                droppedCount += sinkWriter.getDroppedCount();
+            }
+            sinkWriters = new AsyncRecordWriter[0];
+            if (deadbandWriter != null) {
+                filteredCount = deadbandWriter.getFilteredCount();
+                deadbandWriter = null;
+            }
         }
         isRecording = false;
 	}
@@ -202,58 +615,156 @@ public class RecordingOrientationManager implements OrientationManager {
 		return orientationManager.getLocation();
 	}
 
+	@Override
+	public long getTimestamp() {
+		return orientationManager.getTimestamp();
+	}
+
+    /**
+     * Tells if updates are to be captured: into the recording, or into the
+     * flight recorder.
+     */
+    private boolean isCapturing() {
+        return (isRecording && writer != null) || flightRecorder != null;
+    }
+
     private void writeOrientation(OrientationManager orientationManager) {
-        if (isRecording && writer != null) {
-            long elapsed = System.currentTimeMillis() - startTime;
-            
-            try {
-                writer.write(Long.toString(elapsed));
-                writer.write(",O,");
-                writer.write(Float.toString(orientationManager.getHeading()));
-                writer.write(',');
-                writer.write(Float.toString(orientationManager.getPitch()));
-                writer.write(',');
-                writer.write(Float.toString(orientationManager.getRoll()));
-                writer.newLine();
-            } catch (IOException e) {
-            }
+        if (isCapturing()) {
+            record.setOrientation(orientationManager.getTimestamp(),
+                                  orientationManager.getHeading(),
+                                  orientationManager.getPitch(),
+                                  orientationManager.getRoll());
+            write();
         }
     }
 
-    private void writeLocation(OrientationManager orientationManager) {
-        if (isRecording && writer != null) {
-            long elapsed = System.currentTimeMillis() - startTime;
+    private void writeLocation(OrientationManager orientationManager,
+                               long timestamp) {
+        if (isCapturing()) {
             Location l = orientationManager.getLocation();
             
-            try {
-                writer.write(Long.toString(elapsed));
-                writer.write(",L,");
-                writer.write(Double.toString(l.getLatitude()));
-                writer.write(',');
-                writer.write(Double.toString(l.getLongitude()));
-                writer.write(',');
-                writer.write(Double.toString(l.getAltitude()));
-                writer.write(',');
-                writer.write(Float.toString(l.getBearing()));
-                writer.write(',');
-                writer.write(Float.toString(l.getSpeed()));
-                writer.write(',');
-                writer.write(Float.toString(l.getAccuracy()));
-                writer.newLine();
-            } catch (IOException e) {
+            record.setLocation(timestamp,
+                               l.getLatitude(),
+                               l.getLongitude(),
+                               l.getAltitude(),
+                               l.getBearing(),
+                               l.getSpeed(),
+                               l.getAccuracy());
+            write();
+            
+            if (rawWriter != null) {
+                rawRecord.setLocation(getOffset(timestamp),
+                                      l.getLatitude(),
+                                      l.getLongitude(),
+                                      l.getAltitude(),
+                                      l.getBearing(),
+                                      l.getSpeed(),
+                                      l.getAccuracy(),
+                                      l.getTime());
+                writeRaw();
             }
         }
     }
 
     private void writeAccuracy(OrientationManager orientationManager) {
+        if (isCapturing()) {
+            record.setAccuracy(orientationManager.getTimestamp(),
+                               orientationManager.hasInterference());
+            write();
+        }
+    }
+    
+    /**
+     * Converts the timestamp of an update into a record offset. An update
+     * measured before the recording started (a last known location, say) is
+     * recorded at the start.
+     */
+    private long getOffset(long timestamp) {
+        return Math.max(0, timestamp - startTimestamp);
+    }
+    
+    /**
+     * Opens the sinks for a new recording, and fans the records out to the
+     * recording file and the sinks.
+     */
+    private void openSinks() {
+        List<RecordWriter> writers = new ArrayList<RecordWriter>();
+        List<AsyncRecordWriter> asyncWriters = new ArrayList<AsyncRecordWriter>();
+        writers.add(writer);
+        
+        for (Sink s : sinks) {
+            RecordWriter sinkWriter;
+            try {
+                sinkWriter = s.sink.open(startTime);
+            } catch (IOException e) {
+                continue;
+            }
+            if (s.capacity > 0) {
+                AsyncRecordWriter asyncSinkWriter =
+                        new AsyncRecordWriter(sinkWriter, s.capacity, s.overflowPolicy);
+                asyncWriters.add(asyncSinkWriter);
+                sinkWriter = asyncSinkWriter;
+            }
+            writers.add(sinkWriter);
+        }
+        
+        sinkWriters = asyncWriters.toArray(new AsyncRecordWriter[asyncWriters.size()]);
+        writer = new FanOutRecordWriter(writers.toArray(new RecordWriter[writers.size()]));
+    }
+    
+    /**
+     * Starts capturing the raw sensor events. The capture is written by a
+     * writer thread, buffered like the recording, so that the sensor thread
+     * never waits for the storage.
+     */
+    private void startRawCapture(SensorsOrientationManager sensorsManager) {
+        try {
+            RawSensorWriter fileWriter = new RawSensorWriter(new FileOutputStream(
+                    new File(baseDir, startTime + RawSensorWriter.EXTENSION)), startTime);
+            rawWriter = new AsyncRawSensorWriter(fileWriter,
+                    bufferCapacity > 0 ? bufferCapacity : DEFAULT_BUFFER_CAPACITY,
+                    overflowPolicy);
+            sensorsManager.setRawSensorListener(rawSensorListener);
+        } catch (IOException e) {
+            rawWriter = null;
+        }
+    }
+    
+    private void stopRawCapture() {
+        if (rawWriter == null) {
+            return;
+        }
+        
+        ((SensorsOrientationManager) orientationManager).setRawSensorListener(null);
+        try {
+            rawWriter.close();
+        } catch (IOException e) {
+        }
+        droppedCount += rawWriter.getDroppedCount();
+        rawWriter = null;
+    }
+    
+    private void writeRaw() {
+        try {
+            rawWriter.write(rawRecord);
+        } catch (IOException e) {
+        }
+    }
+    
+    /**
+     * Writes the record filled by one of the write methods, with its offset
+     * still being the timestamp of the update.
+     */
+    private void write() {
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.capture(record);
+        }
+        
         if (isRecording && writer != null) {
-            long elapsed = System.currentTimeMillis() - startTime;
-            
+            record.offset = getOffset(record.offset);
             try {
-                writer.write(Long.toString(elapsed));
-                writer.write(",A,");
-                writer.write(Boolean.toString(orientationManager.hasInterference()));
-                writer.newLine();
+                writer.write(record);
             } catch (IOException e) {
             }
         }
@@ -263,4 +774,23 @@ public class RecordingOrientationManager implements OrientationManager {
     public boolean isReplaying() {
         return false;
     }
+    
+    /**
+     * A sink, with the settings of its buffer.
+     */
+    private static class Sink {
+        
+        final RecordSink sink;
+        
+        final int capacity;
+        
+        final AsyncRecordWriter.OverflowPolicy overflowPolicy;
+        
+        Sink(RecordSink sink, int capacity,
+             AsyncRecordWriter.OverflowPolicy overflowPolicy) {
+            this.sink           = sink;
+            this.capacity       = capacity;
+            this.overflowPolicy = overflowPolicy;
+        }
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com.euedge.glass.orientationrecorder.util.MathUtils;
+
+/**
+ * Statistics of a recording, aggregated record by record while it is
+ * written, and stored next to the recording in a small properties file, so
+ * that they can be shown without reading the recording itself.
+ */
+public class RecordingSummary {
+
+    /** The extension appended to the name of a recording for its summary. */
+    public static final String EXTENSION = ".sum";
+
+    private long duration;
+
+    private long orientationCount;
+
+    private long locationCount;
+
+    private long accuracyCount;
+
+    private double minLatitude;
+
+    private double maxLatitude;
+
+    private double minLongitude;
+
+    private double maxLongitude;
+
+    private double minAltitude;
+
+    private double maxAltitude;
+
+    private float minSpeed;
+
+    private float maxSpeed;
+
+    private double distance;
+
+    private double lastLatitude;
+
+    private double lastLongitude;
+
+    /**
+     * Adds a record to the statistics.
+     *
+     * @param record the record to add
+     */
+    public void add(OrientationRecord record) {
+        duration = Math.max(duration, record.offset);
+
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            ++orientationCount;
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            addLocation(record);
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            ++accuracyCount;
+            break;
+        default:
+        }
+    }
+
+    private void addLocation(OrientationRecord record) {
+        if (locationCount == 0) {
+            minLatitude  = maxLatitude  = record.latitude;
+            minLongitude = maxLongitude = record.longitude;
+            minAltitude  = maxAltitude  = record.altitude;
+            minSpeed     = maxSpeed     = record.speed;
+        } else {
+            minLatitude  = Math.min(minLatitude, record.latitude);
+            maxLatitude  = Math.max(maxLatitude, record.latitude);
+            minLongitude = Math.min(minLongitude, record.longitude);
+            maxLongitude = Math.max(maxLongitude, record.longitude);
+            minAltitude  = Math.min(minAltitude, record.altitude);
+            maxAltitude  = Math.max(maxAltitude, record.altitude);
+            minSpeed     = Math.min(minSpeed, record.speed);
+            maxSpeed     = Math.max(maxSpeed, record.speed);
+
+            distance += MathUtils.getDistance(lastLatitude, lastLongitude,
+                                              record.latitude, record.longitude);
+        }
+
+        lastLatitude  = record.latitude;
+        lastLongitude = record.longitude;
+        ++locationCount;
+    }
+
+    /**
+     * Gets the duration of the recording.
+     *
+     * @return the offset of the last record, in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getOrientationCount() {
+        return orientationCount;
+    }
+
+    public long getLocationCount() {
+        return locationCount;
+    }
+
+    public long getAccuracyCount() {
+        return accuracyCount;
+    }
+
+    public boolean hasLocation() {
+        return locationCount > 0;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    public double getMinAltitude() {
+        return minAltitude;
+    }
+
+    public double getMaxAltitude() {
+        return maxAltitude;
+    }
+
+    public float getMinSpeed() {
+        return minSpeed;
+    }
+
+    public float getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Gets the distance travelled, summed up between consecutive location
+     * fixes.
+     *
+     * @return the distance, in kilometers
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Gets the file the summary of a recording is stored in.
+     *
+     * @param recording the recording
+     * @return the summary file
+     */
+    public static File getSummaryFile(File recording) {
+        return new File(recording.getPath() + EXTENSION);
+    }
+
+    /**
+     * Stores the summary next to a recording.
+     *
+     * @param recording the recording the summary belongs to
+     */
+    public void write(File recording) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("duration", Long.toString(duration));
+        properties.setProperty("orientationCount", Long.toString(orientationCount));
+        properties.setProperty("locationCount", Long.toString(locationCount));
+        properties.setProperty("accuracyCount", Long.toString(accuracyCount));
+        if (locationCount > 0) {
+            properties.setProperty("minLatitude", Double.toString(minLatitude));
+            properties.setProperty("maxLatitude", Double.toString(maxLatitude));
+            properties.setProperty("minLongitude", Double.toString(minLongitude));
+            properties.setProperty("maxLongitude", Double.toString(maxLongitude));
+            properties.setProperty("minAltitude", Double.toString(minAltitude));
+            properties.setProperty("maxAltitude", Double.toString(maxAltitude));
+            properties.setProperty("minSpeed", Float.toString(minSpeed));
+            properties.setProperty("maxSpeed", Float.toString(maxSpeed));
+            properties.setProperty("distance", Double.toString(distance));
+        }
+
+        OutputStream out = new FileOutputStream(getSummaryFile(recording));
+        try {
+            properties.store(out, "summary of " + recording.getName());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads the summary stored next to a recording.
+     *
+     * @param recording the recording to get the summary of
+     * @return the summary, or null if the recording has no (readable)
+     *         summary
+     */
+    public static RecordingSummary read(File recording) {
+        File file = getSummaryFile(recording);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            RecordingSummary summary = new RecordingSummary();
+            summary.duration         = Long.parseLong(properties.getProperty("duration"));
+            summary.orientationCount = Long.parseLong(properties.getProperty("orientationCount"));
+            summary.locationCount    = Long.parseLong(properties.getProperty("locationCount"));
+            summary.accuracyCount    = Long.parseLong(properties.getProperty("accuracyCount"));
+            if (summary.locationCount > 0) {
+                summary.minLatitude  = Double.parseDouble(properties.getProperty("minLatitude"));
+                summary.maxLatitude  = Double.parseDouble(properties.getProperty("maxLatitude"));
+                summary.minLongitude = Double.parseDouble(properties.getProperty("minLongitude"));
+                summary.maxLongitude = Double.parseDouble(properties.getProperty("maxLongitude"));
+                summary.minAltitude  = Double.parseDouble(properties.getProperty("minAltitude"));
+                summary.maxAltitude  = Double.parseDouble(properties.getProperty("maxAltitude"));
+                summary.minSpeed     = Float.parseFloat(properties.getProperty("minSpeed"));
+                summary.maxSpeed     = Float.parseFloat(properties.getProperty("maxSpeed"));
+                summary.distance     = Double.parseDouble(properties.getProperty("distance"));
+            }
+
+            return summary;
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // a missing or malformed property
+            return null;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.euedge.glass.orientationrecorder.util.MathUtils;
+
+/**
+ * A recording loaded into memory, for random access. The orientation,
+ * location and accuracy updates are stored in primitive columns, one set of
+ * columns for each, and the state of the recording at any offset is looked
+ * up by a binary search, interpolating between the updates around it.
+ * <p>
+ * Unlike {@link ReplayingOrientationManager}, a timeline doesn't replay the
+ * recording in real time, so analysis and test code can sample many
+ * recordings at arbitrary times. Once loaded, a timeline is immutable and
+ * can be queried from several threads.
+ */
+public class RecordingTimeline {
+
+    /**
+     * The state of a recording at a point in time. Heading, pitch and roll
+     * are interpolated between the orientation updates around the point,
+     * the location between the location fixes, while the interference is
+     * that of the last accuracy update before it. Before the first
+     * orientation update the first one is held, and after the last ones the
+     * last ones are held; there is no location before the first fix.
+     */
+    public static class State {
+        public long offset;
+        public float heading;
+        public float pitch;
+        public float roll;
+        public boolean hasLocation;
+        public double latitude;
+        public double longitude;
+        public double altitude;
+        public float bearing;
+        public float speed;
+        public float accuracy;
+        public boolean hasInterference;
+    }
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] orientationOffsets = new long[INITIAL_CAPACITY];
+    private float[] headings = new float[INITIAL_CAPACITY];
+    private float[] pitches = new float[INITIAL_CAPACITY];
+    private float[] rolls = new float[INITIAL_CAPACITY];
+    private int orientationCount;
+
+    private long[] locationOffsets = new long[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private double[] altitudes = new double[INITIAL_CAPACITY];
+    private float[] bearings = new float[INITIAL_CAPACITY];
+    private float[] speeds = new float[INITIAL_CAPACITY];
+    private float[] accuracies = new float[INITIAL_CAPACITY];
+    private int locationCount;
+
+    private long[] accuracyOffsets = new long[INITIAL_CAPACITY];
+    private boolean[] interferences = new boolean[INITIAL_CAPACITY];
+    private int accuracyCount;
+
+    private long duration;
+
+    /**
+     * Loads a recording, in any of the formats {@link RecordingFormat#openReader(File)}
+     * can read.
+     *
+     * @param file the recording to load
+     */
+    public RecordingTimeline(File file) throws IOException {
+        this(RecordingFormat.openReader(file));
+    }
+
+    /**
+     * Loads the records of a reader, and closes the reader.
+     *
+     * @param reader the reader of the recording
+     */
+    public RecordingTimeline(RecordReader reader) throws IOException {
+        try {
+            OrientationRecord record = new OrientationRecord();
+            while (reader.read(record)) {
+                add(record);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void add(OrientationRecord record) {
+        duration = Math.max(duration, record.offset);
+
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            if (orientationCount == orientationOffsets.length) {
+                int capacity = orientationCount * 2;
+                orientationOffsets = grow(orientationOffsets, capacity);
+                headings           = grow(headings, capacity);
+                pitches            = grow(pitches, capacity);
+                rolls              = grow(rolls, capacity);
+            }
+            orientationOffsets[orientationCount] = record.offset;
+            headings[orientationCount]           = record.heading;
+            pitches[orientationCount]            = record.pitch;
+            rolls[orientationCount]              = record.roll;
+            ++orientationCount;
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            if (locationCount == locationOffsets.length) {
+                int capacity = locationCount * 2;
+                locationOffsets = grow(locationOffsets, capacity);
+                latitudes       = grow(latitudes, capacity);
+                longitudes      = grow(longitudes, capacity);
+                altitudes       = grow(altitudes, capacity);
+                bearings        = grow(bearings, capacity);
+                speeds          = grow(speeds, capacity);
+                accuracies      = grow(accuracies, capacity);
+            }
+            locationOffsets[locationCount] = record.offset;
+            latitudes[locationCount]       = record.latitude;
+            longitudes[locationCount]      = record.longitude;
+            altitudes[locationCount]       = record.altitude;
+            bearings[locationCount]        = record.bearing;
+            speeds[locationCount]          = record.speed;
+            accuracies[locationCount]      = record.accuracy;
+            ++locationCount;
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            if (accuracyCount == accuracyOffsets.length) {
+                int capacity = accuracyCount * 2;
+                accuracyOffsets = grow(accuracyOffsets, capacity);
+                boolean[] grown = new boolean[capacity];
+                System.arraycopy(interferences, 0, grown, 0, accuracyCount);
+                interferences = grown;
+            }
+            accuracyOffsets[accuracyCount] = record.offset;
+            interferences[accuracyCount]   = record.hasInterference;
+            ++accuracyCount;
+            break;
+        default:
+        }
+    }
+
+    private static long[] grow(long[] values, int capacity) {
+        long[] grown = new long[capacity];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    private static float[] grow(float[] values, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    private static double[] grow(double[] values, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    /**
+     * Gets the offset of the last update of the recording.
+     *
+     * @return the duration, in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getOrientationCount() {
+        return orientationCount;
+    }
+
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    public int getAccuracyCount() {
+        return accuracyCount;
+    }
+
+    /**
+     * Gets the state of the recording at a point in time.
+     *
+     * @param offset the point in time, in nanoseconds from the start of the
+     *        recording
+     * @return a new state
+     */
+    public State getStateAt(long offset) {
+        State state = new State();
+        getStateAt(offset, state);
+        return state;
+    }
+
+    /**
+     * Gets the state of the recording at a point in time, without
+     * allocating.
+     *
+     * @param offset the point in time, in nanoseconds from the start of the
+     *        recording
+     * @param state the state to fill in
+     */
+    public void getStateAt(long offset, State state) {
+        state.offset = offset;
+
+        int i = find(orientationOffsets, orientationCount, offset);
+        if (i < 0) {
+            state.heading = 0;
+            state.pitch   = 0;
+            state.roll    = 0;
+        } else {
+            float fraction = getFraction(orientationOffsets, orientationCount, i, offset);
+            int j = Math.min(i + 1, orientationCount - 1);
+            state.heading = MathUtils.interpolateAngle(headings[i], headings[j], fraction);
+            state.pitch   = pitches[i] + (pitches[j] - pitches[i]) * fraction;
+            state.roll    = rolls[i] + (rolls[j] - rolls[i]) * fraction;
+        }
+
+        i = find(locationOffsets, locationCount, offset);
+        state.hasLocation = i >= 0 && offset >= locationOffsets[0];
+        if (state.hasLocation) {
+            float fraction = getFraction(locationOffsets, locationCount, i, offset);
+            int j = Math.min(i + 1, locationCount - 1);
+            state.latitude  = latitudes[i] + (latitudes[j] - latitudes[i]) * fraction;
+            state.longitude = longitudes[i] + (longitudes[j] - longitudes[i]) * fraction;
+            state.altitude  = altitudes[i] + (altitudes[j] - altitudes[i]) * fraction;
+            state.bearing   = MathUtils.interpolateAngle(bearings[i], bearings[j], fraction);
+            state.speed     = speeds[i] + (speeds[j] - speeds[i]) * fraction;
+            state.accuracy  = accuracies[i] + (accuracies[j] - accuracies[i]) * fraction;
+        }
+
+        i = find(accuracyOffsets, accuracyCount, offset);
+        state.hasInterference = i >= 0 && interferences[i] && offset >= accuracyOffsets[i];
+    }
+
+    /**
+     * Finds the update to interpolate from: the last update at or before an
+     * offset, or the first one if the offset is before it.
+     *
+     * @return the index of the update, or -1 if there are no updates
+     */
+    private static int find(long[] offsets, int count, long offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return count == 0 ? -1 : Math.max(high, 0);
+    }
+
+    /**
+     * Gets how far an offset is between an update and the next one, 0 at
+     * the update and 1 at the next one.
+     */
+    private static float getFraction(long[] offsets, int count, int i, long offset) {
+        if (i + 1 >= count || offset <= offsets[i]) {
+            return 0;
+        }
+
+        return (float) (offset - offsets[i]) / (offsets[i + 1] - offsets[i]);
+    }
+}
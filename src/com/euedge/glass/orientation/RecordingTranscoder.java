@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Converts the recordings of a directory from one format into another, for
+ * example the legacy CSV recordings into a binary format, one file per task
+ * on a pool of threads. Each recording is streamed record by record, so
+ * memory use does not depend on its length. The converted recording is
+ * written into a temporary file and read back and compared to the original;
+ * only then is it renamed to its final name, and the original deleted.
+ * <p>
+ * The transcoder depends on nothing Android specific, it can run on the
+ * device as well as on a desktop JVM, see {@link #main(String[])}.
+ */
+public class RecordingTranscoder {
+
+    /** The extension of the temporary files converted recordings are written to. */
+    public static final String TEMPORARY_EXTENSION = ".tmp";
+
+    /**
+     * Receives the progress of a transcoding. The methods are called from
+     * the threads of the pool, one at a time.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called when a recording is converted.
+         *
+         * @param source the original recording, deleted by now
+         * @param target the converted recording
+         * @param done the number of recordings finished so far, converted or
+         *        failed
+         * @param total the number of recordings to convert
+         * @param records the number of records converted so far, over all
+         *        recordings
+         * @param bytes the size of the originals converted so far
+         * @param elapsed the time since the transcoding started, in
+         *        nanoseconds
+         */
+        public void onConverted(File source, File target, int done, int total,
+                                long records, long bytes, long elapsed);
+
+        /**
+         * Called when a recording could not be converted. The original is
+         * left in place.
+         *
+         * @param source the original recording
+         * @param e the reason of the failure
+         */
+        public void onFailed(File source, IOException e);
+    }
+
+    private final RecordingFormat sourceFormat;
+
+    private final RecordingFormat targetFormat;
+
+    private final int threadCount;
+
+    private final Object lock = new Object();
+
+    private int done;
+
+    private int total;
+
+    private long recordCount;
+
+    private long byteCount;
+
+    private long startNanos;
+
+    /**
+     * Creates a transcoder.
+     *
+     * @param sourceFormat the format of the recordings to convert
+     * @param targetFormat the format to convert the recordings into
+     * @param threadCount the number of recordings to convert at once
+     */
+    public RecordingTranscoder(RecordingFormat sourceFormat,
+                               RecordingFormat targetFormat,
+                               int threadCount) {
+        if (sourceFormat.getExtension().equals(targetFormat.getExtension())) {
+            throw new IllegalArgumentException("the formats share an extension");
+        }
+
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+        this.threadCount  = threadCount;
+    }
+
+    /**
+     * Converts all recordings of the source format in a directory, and
+     * waits for the conversions to finish.
+     *
+     * @param dir the directory of the recordings
+     * @param listener the listener to report the progress to, or null
+     * @return the number of recordings converted
+     */
+    public int transcode(File dir, final ProgressListener listener)
+            throws InterruptedException {
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile()
+                    && file.getName().endsWith(sourceFormat.getExtension());
+            }
+        });
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+
+        synchronized (lock) {
+            done        = 0;
+            total       = files.length;
+            recordCount = 0;
+            byteCount   = 0;
+            startNanos  = System.nanoTime();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threadCount, files.length)));
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        try {
+            for (final File file : files) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return transcodeFile(file, listener);
+                    }
+                }));
+            }
+
+            int converted = 0;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (result.get()) {
+                        ++converted;
+                    }
+                } catch (ExecutionException e) {
+                    // failures are reported to the listener
+                }
+            }
+
+            return converted;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean transcodeFile(File source, ProgressListener listener) {
+        String name = source.getName();
+        String baseName = name.substring(0, name.length()
+                                            - sourceFormat.getExtension().length());
+        File target = new File(source.getParentFile(),
+                               baseName + targetFormat.getExtension());
+        File temporary = new File(source.getParentFile(),
+                                  target.getName() + TEMPORARY_EXTENSION);
+        long bytes = source.length();
+
+        long records;
+        try {
+            records = convert(source, temporary, target, getStartTime(baseName, source));
+            verify(source, temporary, records);
+
+            if (!temporary.renameTo(target)) {
+                throw new IOException("can't rename " + temporary + " to " + target);
+            }
+            RecordingSummary.getSummaryFile(source).delete();
+            source.delete();
+        } catch (IOException e) {
+            temporary.delete();
+            RecordingSummary.getSummaryFile(target).delete();
+            synchronized (lock) {
+                ++done;
+                if (listener != null) {
+                    listener.onFailed(source, e);
+                }
+            }
+            return false;
+        }
+
+        synchronized (lock) {
+            ++done;
+            recordCount += records;
+            byteCount   += bytes;
+            if (listener != null) {
+                listener.onConverted(source, target, done, total, recordCount,
+                                     byteCount, System.nanoTime() - startNanos);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a recording into the temporary file, and stores the summary
+     * of the converted recording under its final name.
+     *
+     * @return the number of records converted
+     */
+    private long convert(File source, File temporary, File target, long startTime)
+            throws IOException {
+        OrientationRecord record = new OrientationRecord();
+        long records = 0;
+
+        RecordReader reader = sourceFormat.newReader(source);
+        try {
+            RecordWriter writer = targetFormat.newWriter(temporary, startTime);
+            try {
+                writer = new SummarizingRecordWriter(writer, target);
+                while (reader.read(record)) {
+                    writer.write(record);
+                    ++records;
+                }
+                writer.sync();
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads back the converted recording, and compares it to the original
+     * record by record.
+     */
+    private void verify(File source, File temporary, long records)
+            throws IOException {
+        OrientationRecord expected = new OrientationRecord();
+        OrientationRecord actual = new OrientationRecord();
+        long count = 0;
+
+        RecordReader sourceReader = sourceFormat.newReader(source);
+        try {
+            RecordReader targetReader = targetFormat.newReader(temporary);
+            try {
+                while (sourceReader.read(expected)) {
+                    if (!targetReader.read(actual)) {
+                        throw new IOException("converted recording is short: " + temporary);
+                    }
+                    if (!actual.isSameAs(expected)) {
+                        throw new IOException("converted recording differs at record "
+                                              + count + ": " + temporary);
+                    }
+                    ++count;
+                }
+                if (targetReader.read(actual) || count != records) {
+                    throw new IOException("converted recording is long: " + temporary);
+                }
+            } finally {
+                targetReader.close();
+            }
+        } finally {
+            sourceReader.close();
+        }
+    }
+
+    /**
+     * Gets the wall clock time a recording started at: recordings are named
+     * after it, otherwise the time the file was last modified is used.
+     */
+    private static long getStartTime(String baseName, File source) {
+        try {
+            return Long.parseLong(baseName);
+        } catch (NumberFormatException e) {
+            return source.lastModified();
+        }
+    }
+
+    /**
+     * Converts the recordings of a directory on a desktop JVM.
+     *
+     * <pre>
+     * java com.euedge.glass.orientation.RecordingTranscoder dir [source format] [target format]
+     * </pre>
+     *
+     * The formats default to {@code CSV} and {@code BINARY}.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: RecordingTranscoder dir [source format] [target format]");
+            System.exit(1);
+        }
+
+        RecordingFormat source = args.length > 1 ? RecordingFormat.valueOf(args[1])
+                                                 : RecordingFormat.CSV;
+        RecordingFormat target = args.length > 2 ? RecordingFormat.valueOf(args[2])
+                                                 : RecordingFormat.BINARY;
+        RecordingTranscoder transcoder = new RecordingTranscoder(
+                source, target, Runtime.getRuntime().availableProcessors());
+
+        int converted = transcoder.transcode(new File(args[0]), new ProgressListener() {
+            @Override
+            public void onConverted(File source, File target, int done, int total,
+                                    long records, long bytes, long elapsed) {
+                double seconds = elapsed / 1e9;
+                System.out.println(String.format("%d/%d %s: %.0f records/s, %.1f MB/s",
+                        done, total, target.getName(), records / seconds,
+                        bytes / seconds / (1024 * 1024)));
+            }
+
+            @Override
+            public void onFailed(File source, IOException e) {
+                System.err.println(source.getName() + ": " + e.getMessage());
+            }
+        });
+        System.out.println(converted + " recordings converted");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * Reads a raw sensor capture, and runs the samples through a
+ * {@link SensorFusion}, producing the orientation, location and accuracy
+ * records the live orientation manager would have produced. Records are
+ * produced as fast as they can be computed, so a capture can be re-fused
+ * much faster than real time, for example to write it into a recording, or
+ * to compare alternative fusions.
+ */
+public class RefusingRecordReader implements RecordReader {
+
+    private final RawSensorReader reader;
+
+    private final SensorFusion fusion;
+
+    private final RawSensorRecord raw = new RawSensorRecord();
+
+    /**
+     * Arrays of the exact length of the samples, as the platform's fusion
+     * code looks at the length of the values.
+     */
+    private final float[][] values = new float[RawSensorRecord.MAX_VALUES + 1][];
+
+    public RefusingRecordReader(RawSensorReader reader, SensorFusion fusion) {
+        this.reader = reader;
+        this.fusion = fusion;
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) throws IOException {
+        while (reader.read(raw)) {
+            switch (raw.kind) {
+            case RawSensorRecord.KIND_SAMPLE:
+                if (fusion.onSensorChanged(raw.sensorType, getValues())) {
+                    record.setOrientation(raw.offset,
+                                          fusion.getHeading(),
+                                          fusion.getPitch(),
+                                          fusion.getRoll());
+                    return true;
+                }
+                break;
+            case RawSensorRecord.KIND_ACCURACY:
+                if (fusion.onAccuracyChanged(raw.sensorType, raw.accuracy)) {
+                    record.setAccuracy(raw.offset, fusion.hasInterference());
+                    return true;
+                }
+                break;
+            case RawSensorRecord.KIND_LOCATION:
+                fusion.onLocationChanged(raw.latitude, raw.longitude,
+                                         raw.altitude, raw.time);
+                record.setLocation(raw.offset,
+                                   raw.latitude,
+                                   raw.longitude,
+                                   raw.altitude,
+                                   raw.bearing,
+                                   raw.speed,
+                                   raw.locationAccuracy);
+                return true;
+            default:
+            }
+        }
+
+        return false;
+    }
+
+    private float[] getValues() {
+        float[] v = values[raw.valueCount];
+        if (v == null) {
+            v = new float[raw.valueCount];
+            values[raw.valueCount] = v;
+        }
+        System.arraycopy(raw.values, 0, v, 0, raw.valueCount);
+
+        return v;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
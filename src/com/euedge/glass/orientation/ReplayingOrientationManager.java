@@ -15,20 +15,79 @@
  */
 package com.euedge.glass.orientation;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import android.location.Location;
 
+import com.euedge.glass.orientationrecorder.util.MathUtils;
+
 public class ReplayingOrientationManager implements OrientationManager {
     
-    private BufferedReader reader;
+    /** The number of records decoded ahead of their dispatch. */
+    private static final int READ_AHEAD = 1024;
+    
+    /**
+     * The time before a deadline from which the dispatch thread spins
+     * instead of parking, as waking up from a park may take longer than
+     * asked.
+     */
+    private static final long SPIN_NANOS = 200 * 1000L;
+    
+    /** The slowest playback rate. */
+    public static final float MIN_PLAYBACK_RATE = 0.25f;
+    
+    /** The fastest throttled playback rate. */
+    public static final float MAX_PLAYBACK_RATE = 64.0f;
+    
+    /** The playback rate that dispatches the updates back to back. */
+    public static final float UNTHROTTLED = Float.POSITIVE_INFINITY;
+    
+    /** The recordings to replay, one after the other. */
+    private List<File> files;
+    
+    private RecordReader reader;
+    
+    /** Whether the decoder closed the reader, at the end of a replay. */
+    private volatile boolean readerClosed;
+    
+    /** The seek index of the recording, built on the first seek. */
+    private KeyframeIndex keyframeIndex;
+    
+    private boolean looping;
+    
+    /** The recording decoded into memory, when looping. */
+    private volatile RecordBuffer cache;
+    
+    /**
+     * The record a seek stopped at, to be replayed first; it was read from
+     * the reader already.
+     */
+    private final OrientationRecord pending = new OrientationRecord();
+    
+    private boolean hasPending;
+    
+    /** The offset the replay starts (or resumes) from. */
+    private long startOffset;
+    
+    /** The executor running the sessions, null for the shared one. */
+    private ExecutorService executor;
+    
+    private static ExecutorService sharedExecutor;
+    
+    /** The current (or the last) run of the replay. */
+    private volatile Session session;
     
     private Set<OnChangedListener> listeners;
     
@@ -42,21 +101,36 @@ public class ReplayingOrientationManager implements OrientationManager {
     
     private boolean hasInterference;
     
-    private long nextOffset;
+    private long timestamp;
     
-    private char nextType;
-
-    private Location nextLocation;
+    private volatile boolean interpolating;
     
-    private float nextHeading;
+    /**
+     * Guards the orientation and the location, and the updates following
+     * them, that the getters interpolate between.
+     */
+    private final Object segmentLock = new Object();
     
-    private float nextPitch;
+    private long orientationOffset;
     
-    private float nextRoll;
+    private final OrientationRecord nextOrientation = new OrientationRecord();
     
-    private boolean nextHasInterference;
-
-    boolean shouldRun;
+    private boolean hasNextOrientation;
+    
+    private long locationOffset;
+    
+    private final OrientationRecord nextLocation = new OrientationRecord();
+    
+    private boolean hasNextLocation;
+    
+    private final OrientationRecord next = new OrientationRecord();
+    
+    private final SkewHistogram skewHistogram = new SkewHistogram();
+    
+    private volatile Schedule schedule = new Schedule(0, 0, 1.0f);
+    
+    /** The offset of the last dispatched update. */
+    private volatile long position;
     
     Set<ReplayListener> replayListeners;
     
@@ -64,69 +138,351 @@ public class ReplayingOrientationManager implements OrientationManager {
         public void onReplayFinsihed();
     }
     
-    private Thread readerThread = new Thread() {
-        long startTime;
+    /**
+     * One run of the replay, from a start or a seek until it ends or is
+     * stopped. A session has a queue between two tasks run on the executor:
+     * the decoder, that reads and decodes the recording ahead of the
+     * dispatch, so that I/O and parsing hiccups don't delay the updates, and
+     * the dispatch, that waits until each update is due and notifies the
+     * listeners.
+     * <p>
+     * A session is never restarted; each start creates a new one, so a task
+     * of a stopped session that is still winding down can't take the next
+     * run for its own.
+     */
+    private final class Session {
         
-        long elapsedTime;
+        final RecordQueue queue = new RecordQueue(READ_AHEAD);
         
-        String line;
+        volatile boolean running = true;
         
-        @Override
-        public void run() {
-            startTime = System.currentTimeMillis();
-            elapsedTime = 0;
-            
-            while (shouldRun) {
-                try {
-                    line = reader.readLine();
-                    if (line == null || line.isEmpty()) {
-                        shouldRun = false;
-                        break;
+        /** Set when stopped for a seek, not for good. */
+        volatile boolean halting;
+        
+        /** The threads running the tasks, guarded by the session. */
+        private Thread decoder;
+        
+        private Thread dispatcher;
+        
+        private final CountDownLatch done = new CountDownLatch(2);
+        
+        /**
+         * The location the replayed fixes are copied into, so that a
+         * replay, looping ones included, doesn't allocate a location for
+         * each fix.
+         */
+        final Location fix = new Location("ReplayingOrientationManager");
+        
+        void start(ExecutorService executor) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Session.this) {
+                        decoder = Thread.currentThread();
                     }
-                    
-                    readNextLine(line);
-                    
-                    while (elapsedTime < nextOffset) {
-                        try {
-                            Thread.sleep(nextOffset - elapsedTime);
-                        } catch (InterruptedException e) {
-                            if (!shouldRun) {
-                                reader.close();
-                                notifyStop();
-                                return;
-                            }
+                    try {
+                        decode();
+                    } finally {
+                        synchronized (Session.this) {
+                            decoder = null;
+                            // don't leave an interrupt behind on a pooled thread
+                            Thread.interrupted();
                         }
-                        elapsedTime = System.currentTimeMillis() - startTime;
+                        done.countDown();
                     }
-                    
-                    updateNextDataAndNotifyListeners();
-
-                } catch (IOException e) {
-                    shouldRun = false;
                 }
+            });
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Session.this) {
+                        dispatcher = Thread.currentThread();
+                    }
+                    try {
+                        dispatch();
+                    } finally {
+                        synchronized (Session.this) {
+                            dispatcher = null;
+                            Thread.interrupted();
+                        }
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Stops the session, without waiting for the tasks to end.
+         * 
+         * @param halt true to stop for a seek: the reader is kept open and
+         *        the replay listeners are not told
+         */
+        synchronized void stop(boolean halt) {
+            halting = halt;
+            running = false;
+            if (decoder != null) {
+                decoder.interrupt();
             }
-            
+            if (dispatcher != null) {
+                dispatcher.interrupt();
+            }
+        }
+        
+        /**
+         * Wakes the dispatch up, to recompute the deadline it waits for.
+         */
+        synchronized void wake() {
+            if (dispatcher != null) {
+                LockSupport.unpark(dispatcher);
+            }
+        }
+        
+        /**
+         * Waits until both tasks ended.
+         */
+        void await() {
+            boolean interrupted = false;
+            while (done.getCount() > 0) {
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void decode() {
             try {
-                reader.close();
+                while (running) {
+                    OrientationRecord slot = queue.claim();
+                    if (slot == null || !reader.read(slot)) {
+                        break;
+                    }
+                    queue.publish();
+                }
             } catch (IOException e) {
+                // replay what was decoded up to the failure
+            } finally {
+                if (!halting) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                    }
+                    readerClosed = true;
+                }
+                queue.finish();
             }
-            notifyStop();
         }
-    };
+        
+        /**
+         * Each update is due at an absolute deadline, the start of the
+         * replay plus its offset, so that the time spent notifying doesn't
+         * accumulate into drift.
+         */
+        private void dispatch() {
+            long startTimestamp = ElapsedRealtime.nanos() - startOffset;
+            rebase(System.nanoTime(), startOffset, schedule.rate);
+            position = startOffset;
+            
+            while (running) {
+                if (!queue.take(next)) {
+                    running = false;
+                    break;
+                }
+                
+                if (!waitUntilDue(this, next.offset)) {
+                    break;
+                }
+                
+                position  = next.offset;
+                timestamp = startTimestamp + next.offset;
+                updateNextDataAndNotifyListeners(this);
+            }
+            
+            if (!halting) {
+                notifyStop();
+            }
+        }
+    }
 
     public ReplayingOrientationManager()  {
         listeners = new LinkedHashSet<OnChangedListener>();
         replayListeners = new LinkedHashSet<ReplayListener>();
     }
     
-    public ReplayingOrientationManager(File file) throws FileNotFoundException {
-        reader = new BufferedReader(new FileReader(file));
-        listeners = new LinkedHashSet<OnChangedListener>();
-        replayListeners = new LinkedHashSet<ReplayListener>();
+    public ReplayingOrientationManager(File file) throws IOException {
+        this();
+        setFile(file);
     }
     
-    public void setFile(File file) throws FileNotFoundException {
-        reader = new BufferedReader(new FileReader(file));
+    /**
+     * Sets the recording to replay. The format of the recording is determined
+     * by the extension of the file name, see {@link RecordingFormat}.
+     * 
+     * @param file the recording to replay
+     */
+    public void setFile(File file) throws IOException {
+        setFiles(Collections.singletonList(file));
+    }
+    
+    /**
+     * Sets a playlist of recordings to replay, one after the other, as if
+     * they were a single recording, see {@link PlaylistRecordReader}.
+     * 
+     * A running replay is stopped, without telling the replay listeners,
+     * as the replay goes on with the new recordings at the next
+     * {@link #start()}.
+     * 
+     * @param files the recordings to replay, in order
+     */
+    public synchronized void setFiles(List<File> files) throws IOException {
+        if (session != null) {
+            session.stop(true);
+            session.await();
+        }
+        if (reader != null && !readerClosed) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // the new recordings are opened anyway
+            }
+        }
+        reader = null;
+        
+        this.files    = new ArrayList<File>(files);
+        cache         = null;
+        reader        = openReader(looping);
+        readerClosed  = false;
+        keyframeIndex = null;
+        hasPending    = false;
+        startOffset   = 0;
+    }
+    
+    /**
+     * Jumps to a point of the recording. The heading, pitch, roll, location
+     * and interference are restored to what they were at that point, and
+     * the listeners are notified of them; a running replay carries on from
+     * there, a replay not started yet will start from there.
+     * <p>
+     * The first seek reads through the recording once, to build an index of
+     * the state at every second of it, see {@link KeyframeIndex}. Recordings
+     * that support seeking are then positioned through their own index,
+     * others are read from the start up to the point.
+     * 
+     * @param offset the point to jump to, in milliseconds from the start of
+     *        the recording
+     */
+    public synchronized void seekTo(long offset) throws IOException {
+        long target = Math.max(0, offset * OrientationRecord.NANOS_PER_MILLI);
+        
+        boolean running = isReplaying();
+        if (running) {
+            session.stop(true);
+        }
+        if (session != null) {
+            // a stopped session may still be reading or closing the reader
+            session.await();
+        }
+        
+        if (keyframeIndex == null) {
+            RecordReader indexReader = openReader(false);
+            try {
+                keyframeIndex = KeyframeIndex.build(indexReader);
+            } finally {
+                indexReader.close();
+            }
+        }
+        
+        // position the reader at the keyframe before the target, and take
+        // the state from there
+        int keyframe = keyframeIndex.find(target);
+        long keyframeOffset = 0;
+        if (readerClosed || !(reader instanceof SeekableRecordReader) || keyframe < 0) {
+            reader.close();
+            reader = openReader(looping);
+            readerClosed = false;
+        }
+        heading         = 0;
+        pitch           = 0;
+        roll            = 0;
+        location        = null;
+        hasInterference = false;
+        if (keyframe >= 0) {
+            restore(keyframeIndex.getOrientation(keyframe));
+            restore(keyframeIndex.getLocation(keyframe));
+            restore(keyframeIndex.getAccuracy(keyframe));
+            if (reader instanceof SeekableRecordReader) {
+                keyframeOffset = keyframeIndex.getOffset(keyframe);
+                ((SeekableRecordReader) reader).seek(keyframeOffset);
+            }
+        }
+        
+        // play the records up to the target silently
+        hasPending = false;
+        while (reader.read(next)) {
+            if (next.offset >= target) {
+                pending.set(next);
+                hasPending = true;
+                break;
+            }
+            restore(next);
+        }
+        
+        startOffset = target;
+        position    = target;
+        timestamp   = ElapsedRealtime.nanos();
+        notifyOrientationChanged();
+        if (location != null) {
+            notifyLocationChanged();
+        }
+        notifyAccuracyChanged();
+        
+        if (running) {
+            startSession();
+        }
+    }
+    
+    /**
+     * Sets the executor to run the replay on. The executor must be able to
+     * run the two tasks of a replay at the same time, for their whole
+     * length, and the opening of the next recording of a playlist besides,
+     * like a cached thread pool. By default, a cached thread pool
+     * shared by all replaying managers is used, so starting, stopping and
+     * restarting a replay, or replaying several recordings at once, reuses
+     * the threads of earlier replays.
+     * 
+     * @param executor the executor, or null for the shared one
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "Replay-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+    
+    /**
+     * Gets the offset of the last replayed update.
+     * 
+     * @return the offset, in milliseconds from the start of the recording
+     */
+    public long getPosition() {
+        return position / OrientationRecord.NANOS_PER_MILLI;
     }
     
     @Override
@@ -147,23 +503,103 @@ public class ReplayingOrientationManager implements OrientationManager {
         replayListeners.remove(listener);
     }
 
+    /**
+     * Starts the replay. A replay that ended, or was stopped, starts over
+     * from the start of the recording.
+     */
     @Override
-    public void start() {
+    public synchronized void start() {
         if (!isReplaying()) {
-            shouldRun = true;
-            readerThread.start();
+            if (session != null) {
+                // the last session may still be closing the reader
+                session.await();
+            }
+            if (readerClosed) {
+                try {
+                    reader = openReader(looping);
+                } catch (IOException e) {
+                    notifyStop();
+                    return;
+                }
+                readerClosed = false;
+                hasPending   = false;
+                startOffset  = 0;
+            }
+            skewHistogram.reset();
+            startSession();
         }
     }
 
     @Override
-    public void stop() {
-        shouldRun = false;
-        readerThread.interrupt();
+    public synchronized void stop() {
+        if (session != null) {
+            session.stop(false);
+        }
     }
     
     @Override
     public boolean isReplaying() {
-        return shouldRun && readerThread.isAlive();
+        Session current = session;
+        return current != null && current.running;
+    }
+
+    /**
+     * Sets the speed of the replay, relative to the recorded timing. The
+     * rate may be changed while replaying, the replay carries on from where
+     * it is at the new rate.
+     * 
+     * @param rate the playback rate, between {@link #MIN_PLAYBACK_RATE} and
+     *        {@link #MAX_PLAYBACK_RATE}, or {@link #UNTHROTTLED} to dispatch
+     *        the updates as fast as they can be decoded
+     */
+    public void setPlaybackRate(float rate) {
+        if (rate != UNTHROTTLED) {
+            rate = Math.max(MIN_PLAYBACK_RATE, Math.min(MAX_PLAYBACK_RATE, rate));
+        }
+        
+        synchronized (this) {
+            Schedule current = schedule;
+            long now = System.nanoTime();
+            rebase(now, Math.max(position, current.getPosition(now)), rate);
+        }
+        Session current = session;
+        if (current != null) {
+            current.wake();
+        }
+    }
+    
+    public float getPlaybackRate() {
+        return schedule.rate;
+    }
+    
+    /**
+     * Sets whether the getters interpolate. When interpolating, the replay
+     * looks ahead to the next orientation update and the next location fix
+     * among the decoded records, and {@link #getHeading()},
+     * {@link #getPitch()}, {@link #getRoll()} and {@link #getLocation()}
+     * return the values between the last update and the next one at the
+     * time they are called, so that a renderer polling them sees smooth
+     * motion even where the recording is sparse. The listeners are notified
+     * of the recorded updates only, as without interpolation.
+     * 
+     * @param interpolating true to interpolate
+     */
+    public void setInterpolating(boolean interpolating) {
+        this.interpolating = interpolating;
+    }
+    
+    public boolean isInterpolating() {
+        return interpolating;
+    }
+    
+    /**
+     * Gets the histogram of how late the updates of the current (or the
+     * last) replay were dispatched compared to their recorded timing.
+     * 
+     * @return the live histogram, reset when a replay starts
+     */
+    public SkewHistogram getSkewHistogram() {
+        return skewHistogram;
     }
 
     @Override
@@ -178,23 +614,101 @@ public class ReplayingOrientationManager implements OrientationManager {
 
     @Override
     public float getHeading() {
+        if (interpolating) {
+            synchronized (segmentLock) {
+                float fraction = getOrientationFraction();
+                if (fraction > 0) {
+                    return MathUtils.interpolateAngle(heading, nextOrientation.heading, fraction);
+                }
+            }
+        }
         return heading;
     }
 
     @Override
     public float getPitch() {
+        if (interpolating) {
+            synchronized (segmentLock) {
+                float fraction = getOrientationFraction();
+                if (fraction > 0) {
+                    return pitch + (nextOrientation.pitch - pitch) * fraction;
+                }
+            }
+        }
         return pitch;
     }
 
     @Override
     public float getRoll() {
+        if (interpolating) {
+            synchronized (segmentLock) {
+                float fraction = getOrientationFraction();
+                if (fraction > 0) {
+                    return roll + (nextOrientation.roll - roll) * fraction;
+                }
+            }
+        }
         return roll;
     }
 
+    /**
+     * Gets the location. The location of the last replayed fix is updated
+     * in place by the following fixes, copy it to keep it. When
+     * interpolating, a new location is returned between the last fix and
+     * the next one.
+     */
     @Override
     public Location getLocation() {
-        // TODO Auto-generated method stub
-        return null;
+        if (interpolating) {
+            synchronized (segmentLock) {
+                float fraction = hasNextLocation && location != null
+                        ? getFraction(locationOffset, nextLocation.offset) : 0;
+                if (fraction > 0) {
+                    Location interpolated = new Location(location);
+                    interpolated.setLatitude(location.getLatitude()
+                            + (nextLocation.latitude - location.getLatitude()) * fraction);
+                    interpolated.setLongitude(location.getLongitude()
+                            + (nextLocation.longitude - location.getLongitude()) * fraction);
+                    interpolated.setAltitude(location.getAltitude()
+                            + (nextLocation.altitude - location.getAltitude()) * fraction);
+                    interpolated.setBearing(MathUtils.interpolateAngle(
+                            location.getBearing(), nextLocation.bearing, fraction));
+                    interpolated.setSpeed(location.getSpeed()
+                            + (nextLocation.speed - location.getSpeed()) * fraction);
+                    interpolated.setAccuracy(location.getAccuracy()
+                            + (nextLocation.accuracy - location.getAccuracy()) * fraction);
+                    return interpolated;
+                }
+            }
+        }
+        return location;
+    }
+    
+    private float getOrientationFraction() {
+        return hasNextOrientation ? getFraction(orientationOffset, nextOrientation.offset) : 0;
+    }
+    
+    /**
+     * Gets how far the replay is between two updates, 0 at the first and 1
+     * at the second, or 0 if the replay isn't running or is unthrottled.
+     */
+    private float getFraction(long from, long to) {
+        Schedule current = schedule;
+        if (!isReplaying() || current.rate == UNTHROTTLED || to <= from) {
+            return 0;
+        }
+        
+        long now = current.getPosition(System.nanoTime());
+        return Math.max(0, Math.min(1, (float) (now - from) / (to - from)));
+    }
+
+    /**
+     * Gets the time of the last replayed update: the time the replay
+     * started at, plus the offset of the update in the recording.
+     */
+    @Override
+    public long getTimestamp() {
+        return timestamp;
     }
 
     /**
@@ -224,62 +738,284 @@ public class ReplayingOrientationManager implements OrientationManager {
         }
     }
 
+    /**
+     * Starts a new session, from the start offset. The record a seek
+     * stopped at is queued first.
+     */
+    private void startSession() {
+        Session started = new Session();
+        RecordQueue queue = started.queue;
+        if (hasPending) {
+            queue.claim().set(pending);
+            queue.publish();
+            hasPending = false;
+        }
+        
+        synchronized (segmentLock) {
+            hasNextOrientation = false;
+            hasNextLocation    = false;
+        }
+        
+        session = started;
+        started.start(getExecutor());
+    }
+    
+    private ExecutorService getExecutor() {
+        return executor != null ? executor : getSharedExecutor();
+    }
+    
+    /**
+     * Sets whether the replay loops: the recording is decoded into memory
+     * once, and replayed from there over and over, without reading the file
+     * again and without allocating for each lap, see
+     * {@link CachedRecordReader}. The offsets and the timestamps keep
+     * growing from lap to lap. A replay that is running when looping is
+     * switched keeps going as it was, the change takes effect when it is
+     * started again.
+     * 
+     * @param looping true to loop
+     */
+    public synchronized void setLooping(boolean looping) throws IOException {
+        if (this.looping == looping) {
+            return;
+        }
+        this.looping = looping;
+        if (!looping) {
+            cache = null;
+        }
+        
+        if (files != null && !isReplaying()) {
+            if (session != null) {
+                session.await();
+            }
+            reader.close();
+            reader       = openReader(looping);
+            readerClosed = false;
+            hasPending   = false;
+            startOffset  = 0;
+        }
+    }
+    
+    public synchronized boolean isLooping() {
+        return looping;
+    }
+    
+    /**
+     * Gets the memory the recording decoded for looping takes.
+     * 
+     * @return the size of the decoded recording in bytes, or 0 if it is not
+     *         decoded
+     */
+    public long getCacheFootprint() {
+        RecordBuffer current = cache;
+        return current == null ? 0 : current.getMemoryFootprint();
+    }
+    
+    /**
+     * Opens the recording to replay. When looping, the recording is read
+     * from memory, decoding it first if needed.
+     * 
+     * @param loop whether the reader should start over at the end
+     */
+    private RecordReader openReader(boolean loop) throws IOException {
+        if (looping) {
+            if (cache == null) {
+                cache = CachedRecordReader.load(openRecording());
+            }
+            return new CachedRecordReader(cache, loop);
+        }
+        return openRecording();
+    }
+    
+    /**
+     * Opens the recording, or the playlist of recordings, to replay.
+     */
+    private RecordReader openRecording() throws IOException {
+        if (files.size() == 1) {
+            return RecordingFormat.openReader(files.get(0));
+        }
+        return new PlaylistRecordReader(files, getExecutor());
+    }
+    
+    /**
+     * Restores the state a record holds, without notifying the listeners.
+     */
+    private void restore(OrientationRecord record) {
+        if (record == null) {
+            return;
+        }
+        
+        switch (record.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            heading = record.heading;
+            pitch   = record.pitch;
+            roll    = record.roll;
+            break;
+        case OrientationRecord.TYPE_ACCURACY:
+            hasInterference = record.hasInterference;
+            break;
+        case OrientationRecord.TYPE_LOCATION:
+            location = toLocation(record);
+            break;
+        default:
+        }
+    }
+
+    private void rebase(long nanos, long offset, float rate) {
+        synchronized (this) {
+            schedule = new Schedule(nanos, offset, rate);
+        }
+    }
+
+    /**
+     * Waits until an update is due: parks until shortly before its
+     * deadline, then spins. The deadline is recomputed after each wake up,
+     * as the playback rate may have changed meanwhile. Records the skew of
+     * the update, unless the replay is unthrottled.
+     * 
+     * @param offset the offset of the update
+     * @return false if the replay was stopped meanwhile
+     */
+    private boolean waitUntilDue(Session session, long offset) {
+        while (session.running) {
+            Schedule s = schedule;
+            if (s.rate == UNTHROTTLED) {
+                return true;
+            }
+            
+            long deadline = s.getDeadline(offset);
+            long now = System.nanoTime();
+            long remaining = deadline - now;
+            if (remaining <= 0) {
+                skewHistogram.add(now - deadline);
+                return true;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+                Thread.interrupted();
+            }
+        }
+
+        return false;
+    }
+
     private void notifyStop() {
         for (ReplayListener listener : replayListeners) {
             listener.onReplayFinsihed();
         }
     }
 
-    private void readNextLine(String line) {
-        StringTokenizer tok = new StringTokenizer(line, ",");
-        nextOffset = Long.parseLong(tok.nextToken());
-        nextType = tok.nextToken().charAt(0);
-
-        switch (nextType) {
-        case 'O':
-            nextHeading = Float.parseFloat(tok.nextToken());
-            nextPitch   = Float.parseFloat(tok.nextToken());
-            nextRoll    = Float.parseFloat(tok.nextToken());
-            break;
-        case 'A':
-            nextHasInterference = Boolean.parseBoolean(tok.nextToken());
+    private void updateNextDataAndNotifyListeners(Session session) {
+        switch (next.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
+            synchronized (segmentLock) {
+                heading = next.heading;
+                pitch   = next.pitch;
+                roll    = next.roll;
+                orientationOffset  = next.offset;
+                hasNextOrientation = false;
+            }
             break;
-        case 'L':
-            nextLocation = new Location("ReplayingOrientationManager");
-            nextLocation.setLatitude(Double.parseDouble(tok.nextToken()));
-            nextLocation.setLongitude(Double.parseDouble(tok.nextToken()));
-            nextLocation.setAltitude(Double.parseDouble(tok.nextToken()));
-            nextLocation.setBearing(Float.parseFloat(tok.nextToken()));
-            nextLocation.setSpeed(Float.parseFloat(tok.nextToken()));
-            nextLocation.setAccuracy(Float.parseFloat(tok.nextToken()));
+        case OrientationRecord.TYPE_LOCATION:
+            synchronized (segmentLock) {
+                setLocation(session.fix, next);
+                location        = session.fix;
+                locationOffset  = next.offset;
+                hasNextLocation = false;
+            }
             break;
         default:
         }
-    }
-    
-    private void updateNextDataAndNotifyListeners() {
-        switch (nextType) {
-        case 'O':
-            heading = nextHeading;
-            pitch   = nextPitch;
-            roll    = nextRoll;
+        
+        if (interpolating) {
+            lookAhead(session.queue);
+        }
+        
+        switch (next.type) {
+        case OrientationRecord.TYPE_ORIENTATION:
             notifyOrientationChanged();
             break;
-        case 'A':
-            hasInterference = nextHasInterference;
+        case OrientationRecord.TYPE_ACCURACY:
+            hasInterference = next.hasInterference;
             notifyAccuracyChanged();
             break;
-        case 'L':
-            location = nextLocation;
+        case OrientationRecord.TYPE_LOCATION:
             notifyLocationChanged();
             break;
         default:
         }
     }
+    
+    /**
+     * Finds the updates following the last orientation and location among
+     * the decoded records, if not found yet. The next location fix may be
+     * further ahead than the decoder got, it is looked for again at each
+     * update until it is found.
+     */
+    private void lookAhead(RecordQueue queue) {
+        synchronized (segmentLock) {
+            if (!hasNextOrientation) {
+                hasNextOrientation = queue.peek(OrientationRecord.TYPE_ORIENTATION, nextOrientation);
+            }
+            if (!hasNextLocation && location != null) {
+                hasNextLocation = queue.peek(OrientationRecord.TYPE_LOCATION, nextLocation);
+            }
+        }
+    }
+
+    private static Location toLocation(OrientationRecord record) {
+        Location location = new Location("ReplayingOrientationManager");
+        setLocation(location, record);
+        return location;
+    }
+
+    private static void setLocation(Location location, OrientationRecord record) {
+        location.setLatitude(record.latitude);
+        location.setLongitude(record.longitude);
+        location.setAltitude(record.altitude);
+        location.setBearing(record.bearing);
+        location.setSpeed(record.speed);
+        location.setAccuracy(record.accuracy);
+    }
 
     @Override
     public boolean isRecording() {
         return false;
     }
+    
+    /**
+     * Maps between recording offsets and {@link System#nanoTime()}: the
+     * update at the anchor offset is due at the anchor time, the others
+     * follow at the playback rate.
+     */
+    private static final class Schedule {
+        
+        final long anchorNanos;
+        
+        final long anchorOffset;
+        
+        final float rate;
+        
+        Schedule(long anchorNanos, long anchorOffset, float rate) {
+            this.anchorNanos  = anchorNanos;
+            this.anchorOffset = anchorOffset;
+            this.rate         = rate;
+        }
+        
+        long getDeadline(long offset) {
+            return anchorNanos + (long) ((offset - anchorOffset) / (double) rate);
+        }
+        
+        /**
+         * Gets the offset the replay is at, at a time. Unthrottled replay has
+         * no notion of it, as it is as far as the decoding got.
+         */
+        long getPosition(long nanos) {
+            if (rate == UNTHROTTLED) {
+                return anchorOffset;
+            }
+            return anchorOffset + (long) ((nanos - anchorNanos) * (double) rate);
+        }
+    }
 }
 
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import android.hardware.GeomagneticField;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import com.euedge.glass.orientationrecorder.util.MathUtils;
+
+/**
+ * The fusion used on Glass: heading and pitch come from the rotation vector
+ * sensor, corrected to true north, and roll from the gravity sensor. The
+ * accuracy of the magnetic field sensor tells about interference.
+ */
+public class RotationVectorFusion implements SensorFusion {
+
+    /**
+     * The sensors used by the compass are mounted in the movable arm on Glass. Depending on how
+     * this arm is rotated, it may produce a displacement ranging anywhere from 0 to about 12
+     * degrees. Since there is no way to know exactly how far the arm is rotated, we just split the
+     * difference.
+     */
+    private static final int ARM_DISPLACEMENT_DEGREES = 6;
+
+    private final float[] mRotationMatrix = new float[16];
+    private final float[] mOrientation = new float[9];
+
+    private float mHeading;
+    private float mRoll;
+    private float mPitch;
+    private GeomagneticField mGeomagneticField;
+    private boolean mHasInterference;
+
+    @Override
+    public boolean onSensorChanged(int sensorType, float[] values) {
+        if (sensorType == Sensor.TYPE_ROTATION_VECTOR) {
+            // Get the current heading from the sensor.
+            SensorManager.getRotationMatrixFromVector(mRotationMatrix, values);
+            SensorManager.remapCoordinateSystem(mRotationMatrix, SensorManager.AXIS_X,
+                    SensorManager.AXIS_Z, mRotationMatrix);
+            SensorManager.getOrientation(mRotationMatrix, mOrientation);
+
+            // Store the pitch (used to display a message indicating that the user's head
+            // angle is too steep to produce reliable results.
+            mPitch = (float) Math.toDegrees(mOrientation[1]);
+
+            // Convert the heading (which is relative to magnetic north) to one that is
+            // relative to true north, using the user's current location to compute this.
+            float magneticHeading = (float) Math.toDegrees(mOrientation[0]);
+            mHeading = MathUtils.mod(computeTrueNorth(magneticHeading), 360.0f)
+                    - ARM_DISPLACEMENT_DEGREES;
+
+            return true;
+
+        } else if (sensorType == Sensor.TYPE_GRAVITY) {
+            mRoll = (float) Math.toDegrees(-Math.atan(values[0]
+                    / Math.sqrt(values[1] * values[1] + values[2] * values[2])));
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean onAccuracyChanged(int sensorType, int accuracy) {
+        if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+            mHasInterference = (accuracy < SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Updates the cached instance of the geomagnetic field after a location change.
+     */
+    @Override
+    public void onLocationChanged(double latitude, double longitude, double altitude,
+                                  long time) {
+        mGeomagneticField = new GeomagneticField((float) latitude,
+                (float) longitude, (float) altitude, time);
+    }
+
+    @Override
+    public float getHeading() {
+        return mHeading;
+    }
+
+    @Override
+    public float getPitch() {
+        return mPitch;
+    }
+
+    @Override
+    public float getRoll() {
+        return mRoll;
+    }
+
+    @Override
+    public boolean hasInterference() {
+        return mHasInterference;
+    }
+
+    /**
+     * Use the magnetic field to compute true (geographic) north from the specified heading
+     * relative to magnetic north.
+     *
+     * @param heading the heading (in degrees) relative to magnetic north
+     * @return the heading (in degrees) relative to true north
+     */
+    private float computeTrueNorth(float heading) {
+        if (mGeomagneticField != null) {
+            return heading + mGeomagneticField.getDeclination();
+        } else {
+            return heading;
+        }
+    }
+}
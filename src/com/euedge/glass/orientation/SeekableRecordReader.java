@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.IOException;
+
+/**
+ * A record reader that can jump to an arbitrary point of the recording,
+ * without reading the records before it.
+ */
+public interface SeekableRecordReader extends RecordReader {
+
+    /**
+     * Positions the reader so that the next {@link #read(OrientationRecord)}
+     * returns the first record at or after the specified offset.
+     *
+     * @param offset the offset to seek to
+     */
+    public void seek(long offset) throws IOException;
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a recording split into segments by {@link SegmentingRecordWriter},
+ * as if it was a single recording. Segments are opened one at a time, and
+ * the offsets of their records are shifted back to the start of the whole
+ * recording, so replay moves across segment boundaries without a gap.
+ */
+public class SegmentedRecordReader implements SeekableRecordReader {
+
+    private final List<File> segments = new ArrayList<File>();
+
+    private final long[] segmentOffsets;
+
+    private RecordReader reader;
+
+    private int current = -1;
+
+    /** A record read ahead while seeking in a segment that can't seek. */
+    private final OrientationRecord pending = new OrientationRecord();
+
+    private boolean hasPending;
+
+    public SegmentedRecordReader(File manifest) throws IOException {
+        List<Long> offsets = new ArrayList<Long>();
+        File dir = manifest.getAbsoluteFile().getParentFile();
+
+        BufferedReader in = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    throw new IOException("malformed segment manifest line: " + line);
+                }
+                try {
+                    offsets.add(Long.valueOf(line.substring(0, space)));
+                } catch (NumberFormatException e) {
+                    throw new IOException("malformed segment manifest line: " + line);
+                }
+                segments.add(new File(dir, line.substring(space + 1)));
+            }
+        } finally {
+            in.close();
+        }
+
+        segmentOffsets = new long[offsets.size()];
+        for (int i = 0; i < segmentOffsets.length; ++i) {
+            segmentOffsets[i] = offsets.get(i);
+        }
+    }
+
+    /**
+     * Gets the number of segments of the recording.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public boolean read(OrientationRecord record) throws IOException {
+        if (hasPending) {
+            hasPending = false;
+            record.set(pending);
+            return true;
+        }
+
+        while (true) {
+            if (reader != null && reader.read(record)) {
+                record.offset += segmentOffsets[current];
+                return true;
+            }
+            if (!openSegment(current + 1)) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        hasPending = false;
+
+        int segment = 0;
+        for (int i = 1; i < segmentOffsets.length; ++i) {
+            if (segmentOffsets[i] <= offset) {
+                segment = i;
+            }
+        }
+        if (!openSegment(segment)) {
+            return;
+        }
+
+        if (reader instanceof SeekableRecordReader) {
+            ((SeekableRecordReader) reader).seek(offset - segmentOffsets[current]);
+            return;
+        }
+
+        while (read(pending)) {
+            if (pending.offset >= offset) {
+                hasPending = true;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    /**
+     * Closes the current segment, and opens the specified one.
+     *
+     * @return false if there is no such segment, or the last segment can't
+     *         be read
+     */
+    private boolean openSegment(int index) throws IOException {
+        close();
+
+        current = index;
+        if (index >= segments.size()) {
+            return false;
+        }
+
+        try {
+            reader = RecordingFormat.openReader(segments.get(index));
+        } catch (IOException e) {
+            // the last segment may have been cut short before its header
+            // got written
+            if (index == segments.size() - 1) {
+                return false;
+            }
+            throw e;
+        }
+        return true;
+    }
+}
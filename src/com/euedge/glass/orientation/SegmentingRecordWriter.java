@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * A writer that splits a long recording into segment files, rolling over to
+ * a new segment after a configurable duration or file size.
+ * <p>
+ * The segments of a recording started at {@code startTime} are stored in the
+ * directory {@code startTime + ".segments"}, each segment being a standalone
+ * recording, numbered in order. The manifest
+ * {@code startTime + ".oms"} chains the segments into one logical recording,
+ * one line per segment:
+ *
+ * <pre>
+ * &lt;offset of the segment start&gt; &lt;path of the segment, relative to the manifest&gt;
+ * </pre>
+ *
+ * A line is appended to the manifest when its segment is opened, so the
+ * manifest is always up to date, even if the recording is not closed
+ * properly. See {@link SegmentedRecordReader} for reading the segments back.
+ */
+public class SegmentingRecordWriter implements RecordWriter {
+
+    /** The file name extension of segment manifests. */
+    public static final String MANIFEST_EXTENSION = ".oms";
+
+    /** The file name extension of the directories holding the segments. */
+    public static final String SEGMENTS_EXTENSION = ".segments";
+
+    /** The number of records written between two checks of the file size. */
+    private static final int SIZE_CHECK_INTERVAL = 64;
+
+    private final RecordingFormat format;
+
+    private final long startTime;
+
+    private final long maxDuration;
+
+    private final long maxBytes;
+
+    private final File segmentDir;
+
+    private final FileOutputStream manifestStream;
+
+    private final Writer manifest;
+
+    /** Whether the manifest lines written so far are forced to storage. */
+    private boolean manifestSynced;
+
+    private final OrientationRecord shifted = new OrientationRecord();
+
+    private RecordWriter segment;
+
+    private File segmentFile;
+
+    private long segmentOffset;
+
+    private int segmentIndex;
+
+    private int sinceSizeCheck;
+
+    /** The number of bytes written into the closed segments. */
+    private long closedBytes;
+
+    /**
+     * Creates a writer, and the manifest of the recording.
+     *
+     * @param format the format to write the segments in
+     * @param baseDir the directory to put the manifest and the segments in
+     * @param startTime the wall clock time the recording started at
+     * @param maxDuration the duration after which to start a new segment,
+     *        in nanoseconds, or 0 for no limit
+     * @param maxBytes the size after which to start a new segment, or 0 for
+     *        no limit. The size is checked periodically, and writers buffer
+     *        their output, so segments may somewhat exceed this size. The
+     *        memory mapped writer grows its file a whole region at a time,
+     *        so this should be well above its region size.
+     */
+    public SegmentingRecordWriter(RecordingFormat format, File baseDir,
+                                  long startTime, long maxDuration, long maxBytes)
+            throws IOException {
+        this.format      = format;
+        this.startTime   = startTime;
+        this.maxDuration = maxDuration;
+        this.maxBytes    = maxBytes;
+
+        segmentDir = new File(baseDir, startTime + SEGMENTS_EXTENSION);
+        if (!segmentDir.isDirectory() && !segmentDir.mkdirs()) {
+            throw new IOException("can't create segment directory: " + segmentDir);
+        }
+
+        manifestStream = new FileOutputStream(new File(baseDir, startTime + MANIFEST_EXTENSION));
+        manifest = new OutputStreamWriter(manifestStream);
+        try {
+            openSegment(0);
+        } catch (IOException e) {
+            manifest.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        if (maxDuration > 0 && record.offset - segmentOffset >= maxDuration) {
+            rollOver(record.offset);
+        } else if (maxBytes > 0 && ++sinceSizeCheck >= SIZE_CHECK_INTERVAL) {
+            sinceSizeCheck = 0;
+            if (segmentFile.length() >= maxBytes) {
+                rollOver(record.offset);
+            }
+        }
+
+        shifted.set(record);
+        shifted.offset -= segmentOffset;
+        segment.write(shifted);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        segment.flush();
+    }
+
+    /**
+     * Forces the current segment to storage, and the manifest too if it
+     * changed since the last sync.
+     */
+    @Override
+    public void sync() throws IOException {
+        segment.sync();
+        if (!manifestSynced) {
+            manifestStream.getFD().sync();
+            manifestSynced = true;
+        }
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return closedBytes + segment.getBytesWritten();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            segment.close();
+        } finally {
+            manifest.close();
+        }
+    }
+
+    private void rollOver(long offset) throws IOException {
+        segment.close();
+        closedBytes += segment.getBytesWritten();
+        openSegment(offset);
+    }
+
+    private void openSegment(long offset) throws IOException {
+        segmentOffset = offset;
+        sinceSizeCheck = 0;
+
+        String name = String.format("%04d%s", segmentIndex++, format.getExtension());
+        segmentFile = new File(segmentDir, name);
+        segment = format.newWriter(segmentFile,
+                                   startTime + offset / OrientationRecord.NANOS_PER_MILLI);
+
+        manifest.write(offset + " " + segmentDir.getName() + "/" + name + "\n");
+        manifest.flush();
+        manifestSynced = false;
+    }
+}
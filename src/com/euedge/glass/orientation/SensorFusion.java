@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * Turns raw sensor samples into heading, pitch and roll. The same fusion is
+ * used live by {@link SensorsOrientationManager}, and offline on raw sensor
+ * captures by {@link RefusingRecordReader}, so alternative fusion math can be
+ * tried on captured data.
+ */
+public interface SensorFusion {
+
+    /**
+     * Feeds a sensor sample into the fusion.
+     *
+     * @param sensorType the type of the sensor, one of the
+     *        {@code Sensor.TYPE_} constants
+     * @param values the values of the sample
+     * @return true if the orientation changed
+     */
+    public boolean onSensorChanged(int sensorType, float[] values);
+
+    /**
+     * Feeds a change in the accuracy of a sensor into the fusion.
+     *
+     * @param sensorType the type of the sensor
+     * @param accuracy the new accuracy
+     * @return true if the fusion's interference status was updated
+     */
+    public boolean onAccuracyChanged(int sensorType, int accuracy);
+
+    /**
+     * Feeds a location fix into the fusion.
+     *
+     * @param latitude the latitude, in degrees
+     * @param longitude the longitude, in degrees
+     * @param altitude the altitude, in meters
+     * @param time the wall clock time of the fix, in milliseconds
+     */
+    public void onLocationChanged(double latitude, double longitude,
+                                  double altitude, long time);
+
+    public float getHeading();
+
+    public float getPitch();
+
+    public float getRoll();
+
+    public boolean hasInterference();
+}
@@ -25,7 +25,6 @@ import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import android.hardware.GeomagneticField;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -37,8 +36,6 @@ import android.location.LocationManager;
 import android.os.Bundle;
 import android.os.Looper;
 
-import com.euedge.glass.orientationrecorder.util.MathUtils;
-
 /**
  * Collects and communicates information about the user's current orientation and location,
  * using the sensors provided by Android.
@@ -61,28 +58,42 @@ public class SensorsOrientationManager implements OrientationManager {
      */
     private static final long MAX_LOCATION_AGE_MILLIS = TimeUnit.MINUTES.toMillis(30);
 
-    /**
-     * The sensors used by the compass are mounted in the movable arm on Glass. Depending on how
-     * this arm is rotated, it may produce a displacement ranging anywhere from 0 to about 12
-     * degrees. Since there is no way to know exactly how far the arm is rotated, we just split the
-     * difference.
-     */
-    private static final int ARM_DISPLACEMENT_DEGREES = 6;
-
     private final SensorManager mSensorManager;
     private final LocationManager mLocationManager;
     private final String mLocationProvider;
     private final Set<OnChangedListener> mListeners;
-    private final float[] mRotationMatrix;
-    private final float[] mOrientation;
+    private final SensorFusion mFusion;
 
     private boolean mTracking;
-    private float mHeading;
-    private float mRoll;
-    private float mPitch;
     private Location mLocation;
-    private GeomagneticField mGeomagneticField;
-    private boolean mHasInterference;
+    private long mTimestamp;
+    private final ElapsedRealtime.SensorClock mSensorClock = new ElapsedRealtime.SensorClock();
+    private RawSensorListener mRawSensorListener;
+
+    /**
+     * Classes should implement this interface if they want to receive the sensor events the
+     * orientation is computed from, untouched.
+     */
+    public interface RawSensorListener {
+        /**
+         * Called for every event of the sensors used by the orientation manager.
+         *
+         * @param sensorType the type of the sensor
+         * @param timestamp the time of the event, in nanoseconds elapsed since boot
+         * @param accuracy the accuracy of the event
+         * @param values the values of the event, only valid during the call
+         */
+        void onRawSensorChanged(int sensorType, long timestamp, int accuracy, float[] values);
+
+        /**
+         * Called when the accuracy of a sensor used by the orientation manager changes.
+         *
+         * @param sensorType the type of the sensor
+         * @param timestamp the time of the change, in nanoseconds elapsed since boot
+         * @param accuracy the new accuracy
+         */
+        void onRawAccuracyChanged(int sensorType, long timestamp, int accuracy);
+    }
 
     /**
      * The sensor listener used by the orientation manager.
@@ -91,38 +102,29 @@ public class SensorsOrientationManager implements OrientationManager {
 
         @Override
         public void onAccuracyChanged(Sensor sensor, int accuracy) {
-            if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                mHasInterference = (accuracy < SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+            long timestamp = mSensorClock.nanos();
+            if (mRawSensorListener != null) {
+                mRawSensorListener.onRawAccuracyChanged(sensor.getType(), timestamp, accuracy);
+            }
+
+            if (mFusion.onAccuracyChanged(sensor.getType(), accuracy)) {
+                mTimestamp = timestamp;
                 notifyAccuracyChanged();
             }
         }
 
         @Override
         public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-                // Get the current heading from the sensor, then notify the listeners of the
-                // change.
-                SensorManager.getRotationMatrixFromVector(mRotationMatrix, event.values);
-                SensorManager.remapCoordinateSystem(mRotationMatrix, SensorManager.AXIS_X,
-                        SensorManager.AXIS_Z, mRotationMatrix);
-                SensorManager.getOrientation(mRotationMatrix, mOrientation);
-
-                // Store the pitch (used to display a message indicating that the user's head
-                // angle is too steep to produce reliable results.
-                mPitch = (float) Math.toDegrees(mOrientation[1]);
-
-                // Convert the heading (which is relative to magnetic north) to one that is
-                // relative to true north, using the user's current location to compute this.
-                float magneticHeading = (float) Math.toDegrees(mOrientation[0]);
-                mHeading = MathUtils.mod(computeTrueNorth(magneticHeading), 360.0f)
-                        - ARM_DISPLACEMENT_DEGREES;
-
-                notifyOrientationChanged();
-                
-            } else if (event.sensor.getType() == Sensor.TYPE_GRAVITY) {
-                mRoll = (float) Math.toDegrees(-Math.atan(event.values[0]
-                        / Math.sqrt(event.values[1] * event.values[1] + event.values[2] * event.values[2])));
+            long timestamp = mSensorClock.ofSensorEvent(event.sensor.getType(), event.timestamp);
+            if (mRawSensorListener != null) {
+                mRawSensorListener.onRawSensorChanged(event.sensor.getType(), timestamp,
+                        event.accuracy, event.values);
+            }
 
+            // Get the current orientation from the sensors, then notify the listeners of the
+            // change.
+            if (mFusion.onSensorChanged(event.sensor.getType(), event.values)) {
+                mTimestamp = timestamp;
                 notifyOrientationChanged();
             }
         }
@@ -135,6 +137,7 @@ public class SensorsOrientationManager implements OrientationManager {
         @Override
         public void onLocationChanged(Location location) {
             mLocation = location;
+            mTimestamp = ElapsedRealtime.ofLocation(location);
             updateGeomagneticField();
             notifyLocationChanged();
         }
@@ -160,8 +163,16 @@ public class SensorsOrientationManager implements OrientationManager {
      * access system services.
      */
     public SensorsOrientationManager(SensorManager sensorManager, LocationManager locationManager) {
-        mRotationMatrix = new float[16];
-        mOrientation = new float[9];
+        this(sensorManager, locationManager, new RotationVectorFusion());
+    }
+
+    /**
+     * Initializes a new instance of {@code OrientationManager}, computing the orientation from
+     * the sensor events with the specified fusion.
+     */
+    public SensorsOrientationManager(SensorManager sensorManager, LocationManager locationManager,
+                                     SensorFusion fusion) {
+        mFusion = fusion;
         mSensorManager = sensorManager;
         mLocationManager = locationManager;
         mListeners = new LinkedHashSet<OnChangedListener>();
@@ -197,6 +208,7 @@ public class SensorsOrientationManager implements OrientationManager {
     @Override
 	public void start() {
         if (!mTracking) {
+            mSensorClock.reset();
             mSensorManager.registerListener(mSensorListener,
                     mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR),
                     SensorManager.SENSOR_DELAY_UI);
@@ -248,7 +260,7 @@ public class SensorsOrientationManager implements OrientationManager {
 	 */
     @Override
 	public boolean hasInterference() {
-        return mHasInterference;
+        return mFusion.hasInterference();
     }
 
     /* (non-Javadoc)
@@ -264,7 +276,7 @@ public class SensorsOrientationManager implements OrientationManager {
 	 */
     @Override
 	public float getHeading() {
-        return mHeading;
+        return mFusion.getHeading();
     }
 
     /* (non-Javadoc)
@@ -272,7 +284,7 @@ public class SensorsOrientationManager implements OrientationManager {
 	 */
     @Override
 	public float getPitch() {
-        return mPitch;
+        return mFusion.getPitch();
     }
 
     /* (non-Javadoc)
@@ -280,7 +292,7 @@ public class SensorsOrientationManager implements OrientationManager {
 	 */
     @Override
 	public float getRoll() {
-        return mRoll;
+        return mFusion.getRoll();
     }
 
     /* (non-Javadoc)
@@ -291,6 +303,18 @@ public class SensorsOrientationManager implements OrientationManager {
         return mLocation;
     }
 
+    @Override
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Sets the listener to receive the raw sensor events, or null to stop delivering them.
+     */
+    public void setRawSensorListener(RawSensorListener listener) {
+        mRawSensorListener = listener;
+    }
+
     /**
      * Notifies all listeners that the user's orientation has changed.
      */
@@ -322,24 +346,8 @@ public class SensorsOrientationManager implements OrientationManager {
      * Updates the cached instance of the geomagnetic field after a location change.
      */
     private void updateGeomagneticField() {
-        mGeomagneticField = new GeomagneticField((float) mLocation.getLatitude(),
-                (float) mLocation.getLongitude(), (float) mLocation.getAltitude(),
-                mLocation.getTime());
-    }
-
-    /**
-     * Use the magnetic field to compute true (geographic) north from the specified heading
-     * relative to magnetic north.
-     *
-     * @param heading the heading (in degrees) relative to magnetic north
-     * @return the heading (in degrees) relative to true north
-     */
-    private float computeTrueNorth(float heading) {
-        if (mGeomagneticField != null) {
-            return heading + mGeomagneticField.getDeclination();
-        } else {
-            return heading;
-        }
+        mFusion.onLocationChanged(mLocation.getLatitude(), mLocation.getLongitude(),
+                mLocation.getAltitude(), mLocation.getTime());
     }
 
     @Override
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+/**
+ * A histogram of how late replayed updates were dispatched, compared to
+ * when they were due. The buckets are powers of two nanoseconds wide:
+ * bucket {@code i} counts the skews of at least {@code 2^(i-1)} and less
+ * than {@code 2^i} nanoseconds, bucket 0 the skews of 0. Updates are added
+ * by the dispatch thread, and the statistics may be read from any thread.
+ */
+public class SkewHistogram {
+
+    /** The number of buckets, enough for any non-negative long. */
+    public static final int BUCKET_COUNT = 64;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+
+    private long count;
+
+    private long total;
+
+    private long max;
+
+    /**
+     * Adds the skew of an update.
+     *
+     * @param skew the time the update was dispatched after it was due, in
+     *        nanoseconds; negative values count as 0
+     */
+    public synchronized void add(long skew) {
+        skew = Math.max(0, skew);
+
+        ++buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(skew)];
+        ++count;
+        total += skew;
+        max = Math.max(max, skew);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        max   = 0;
+    }
+
+    /**
+     * Gets the number of updates added.
+     *
+     * @return the number of updates
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of updates in a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the number of updates with a skew in the bucket
+     */
+    public synchronized long getBucketCount(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * Gets the average skew.
+     *
+     * @return the average skew, in nanoseconds
+     */
+    public synchronized long getMean() {
+        return count > 0 ? total / count : 0;
+    }
+
+    /**
+     * Gets the largest skew.
+     *
+     * @return the largest skew, in nanoseconds
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets an upper bound of the skew below which the specified fraction
+     * of the updates fall: the upper end of the bucket the percentile falls
+     * into, but never more than the largest skew.
+     *
+     * @param fraction the fraction of the updates, between 0 and 1
+     * @return the skew, in nanoseconds
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+            }
+        }
+
+        return max;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 EU Edge LLC, http://euedge.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.euedge.glass.orientation;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A record writer that aggregates a {@link RecordingSummary} of the records
+ * passing through, and stores it next to the recording when closed.
+ */
+public class SummarizingRecordWriter implements RecordWriter {
+
+    private final RecordWriter writer;
+
+    private final File recording;
+
+    private final RecordingSummary summary = new RecordingSummary();
+
+    /**
+     * Creates a summarizing writer.
+     *
+     * @param writer the writer to pass the records on to
+     * @param recording the recording written by the enclosed writer, the
+     *        summary is stored next to it
+     */
+    public SummarizingRecordWriter(RecordWriter writer, File recording) {
+        this.writer    = writer;
+        this.recording = recording;
+    }
+
+    @Override
+    public void write(OrientationRecord record) throws IOException {
+        writer.write(record);
+        summary.add(record);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        writer.sync();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return writer.getBytesWritten();
+    }
+
+    /**
+     * Closes the enclosed writer, and stores the summary.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        summary.write(recording);
+    }
+}
@@ -94,6 +94,9 @@ public class OrientationRecorderMenuActivity extends Activity {
             ors.startRecording();
             invalidateOptionsMenu();
             return true;
+        case R.id.save_last_minutes:
+            ors.saveLastMinutes();
+            return true;
         case R.id.replay:
             displayReplayList();
             invalidateOptionsMenu();
@@ -135,6 +138,7 @@ public class OrientationRecorderMenuActivity extends Activity {
          menu.findItem(R.id.record).setEnabled(!(ors.isRecording() || ors.isReplaying()));
          menu.findItem(R.id.stop).setEnabled(ors.isRecording() || ors.isReplaying());
          menu.findItem(R.id.replay).setEnabled(!(ors.isRecording() || ors.isReplaying()));
+         menu.findItem(R.id.save_last_minutes).setEnabled(!ors.isReplaying());
          
          return true;
     }
@@ -22,7 +22,10 @@
 package com.euedge.glass.orientationrecorder;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import android.app.PendingIntent;
 import android.app.Service;
@@ -36,6 +39,8 @@ import android.os.Binder;
 import android.os.IBinder;
 import android.speech.tts.TextToSpeech;
 
+import com.euedge.glass.orientation.FlushPolicy;
+import com.euedge.glass.orientation.RecordingFormat;
 import com.euedge.glass.orientation.RecordingOrientationManager;
 import com.euedge.glass.orientation.ReplayingOrientationManager;
 import com.euedge.glass.orientation.ReplayingOrientationManager.ReplayListener;
@@ -56,6 +61,15 @@ public class OrientationRecorderService extends Service {
     private static final String PREFS_UOM_KEY = "key_uom";
 
     public static final String ORIENTATIONS_DIR = "orientations";
+
+    /** The length of the window saved from the flight recorder, in milliseconds. */
+    private static final long FLIGHT_RECORDER_WINDOW = 5 * 60 * 1000L;
+
+    /**
+     * The number of updates kept by the flight recorder: at about 35 updates
+     * per second, enough for the window, in about 1.5MB.
+     */
+    private static final int FLIGHT_RECORDER_CAPACITY = 32 * 1024;
     
     /**
      * A binder that gives other components access to the speech capabilities provided by the
@@ -138,6 +152,17 @@ public class OrientationRecorderService extends Service {
         recordingOrientationManager = new RecordingOrientationManager( 
                 new SensorsOrientationManager(sensorManager, locationManager),
                 omDir, false);
+        recordingOrientationManager.setFormat(RecordingFormat.BINARY_MAPPED);
+        // roll long sessions over to a new segment every hour, or 32MB
+        recordingOrientationManager.setSegmentLimits(60 * 60 * 1000L,
+                                                     32 * 1024 * 1024L);
+        // skip updates within sensor noise, at most 50 per second, but keep
+        // a keyframe every second
+        recordingOrientationManager.setOrientationFilter(0.5f, 0.5f, 0.5f,
+                                                         20, 1000);
+        // commit at least every 5 seconds, and right after each location fix
+        recordingOrientationManager.setFlushPolicy(new FlushPolicy(0, 5000, true, false));
+        recordingOrientationManager.setFlightRecorder(FLIGHT_RECORDER_CAPACITY);
         
         replayingOrientationManager = new ReplayingOrientationManager();
         replayingOrientationManager.addReplayListener(replayListener);
@@ -220,16 +245,37 @@ public class OrientationRecorderService extends Service {
         return recordingOrientationManager.isRecording();
     }
     
+    /**
+     * Saves the last few minutes kept by the flight recorder into a new
+     * recording.
+     */
+    public void saveLastMinutes() {
+        recordingOrientationManager.saveFlightRecording(FLIGHT_RECORDER_WINDOW);
+    }
+    
     public void startReplaying(String filename) {
+        startReplaying(Collections.singletonList(filename));
+    }
+    
+    /**
+     * Replays several recordings one after the other, without a gap.
+     * 
+     * @param filenames the names of the recordings, in order
+     */
+    public void startReplaying(List<String> filenames) {
         try {
             File omDir = new File(getApplicationContext().getExternalFilesDir(null),
                                   ORIENTATIONS_DIR);
-            replayingOrientationManager.setFile(new File(omDir, filename));
+            List<File> files = new ArrayList<File>();
+            for (String filename : filenames) {
+                files.add(new File(omDir, filename));
+            }
+            replayingOrientationManager.setFiles(files);
             mRenderer.setOrientationManager(replayingOrientationManager);
             replayingOrientationManager.start();
             
             recordingOrientationManager.stop();
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
         }
     }
     
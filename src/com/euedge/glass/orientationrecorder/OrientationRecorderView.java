@@ -477,15 +477,7 @@ public class OrientationRecorderView extends View {
                 // issues), we animate the effect to provide a more fluid user experience. The
                 // calculation below finds the shortest distance between the two angles, which may
                 // involve crossing 0/360 degrees.
-                float goal;
-
-                if (distance < reverseDistance) {
-                    goal = end;
-                } else if (end < start) {
-                    goal = end + 360.0f;
-                } else {
-                    goal = end - 360.0f;
-                }
+                float goal = MathUtils.getClosestEquivalentAngle(start, end);
 
                 mAnimator.setFloatValues(start, goal);
                 // make sure the animation is started from within the UI thread
@@ -17,9 +17,13 @@ package com.euedge.glass.orientationrecorder;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
-import com.euedge.glass.orientation.RecordingOrientationManager;
+import com.euedge.glass.orientation.OrientationRecord;
+import com.euedge.glass.orientation.RecordingFormat;
+import com.euedge.glass.orientation.RecordingSummary;
 
 import android.app.Activity;
 import android.content.ComponentName;
@@ -30,21 +34,31 @@ import android.os.IBinder;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
+import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.AdapterView.OnItemSelectedListener;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
-public class RecordedFileListActivity extends Activity implements OnItemClickListener, OnItemSelectedListener {
+public class RecordedFileListActivity extends Activity
+        implements OnItemClickListener, OnItemLongClickListener, OnItemSelectedListener {
 
-    private String selectedFilename;
+    /** The recordings to replay, one after the other. */
+    private final List<String> selectedFilenames = new ArrayList<String>();
+    
+    /** The names of the listed recordings, in the order of the list. */
+    private final List<String> fileNames = new ArrayList<String>();
+    
+    /** The labels of the listed recordings, without the queue position. */
+    private final List<String> labels = new ArrayList<String>();
+    
+    private ArrayAdapter<String> items;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.recorded_file_list);
 
-        ArrayAdapter<String> items =
-                new ArrayAdapter<String>(this,
+        items = new ArrayAdapter<String>(this,
                                          R.layout.recorded_file_list_item,
                                          R.id.file_list_label);
         
@@ -53,20 +67,19 @@ public class RecordedFileListActivity extends Activity implements OnItemClickLis
         if (omDir.exists() && omDir.isDirectory()) {
             File files[] = omDir.listFiles(new FileFilter() {
                 public boolean accept(File file) {
-                    return file.isFile() && file.getName().endsWith(
-                            RecordingOrientationManager.EXTENSION);
+                    return file.isFile()
+                        && RecordingFormat.isRecording(file.getName());
                 }
             });
             
-            String fileNames[] = new String[files.length];
-            for (int i = 0; i < files.length; ++i) {
-                fileNames[i] = files[i].getName();
-            }
-            
-            Arrays.sort(fileNames);
+            Arrays.sort(files);
             
-            for (int i = fileNames.length; i > 0; ) {
-                items.add(fileNames[--i]);
+            for (int i = files.length; i > 0; ) {
+                File file = files[--i];
+                fileNames.add(file.getName());
+                String label = getLabel(file);
+                labels.add(label);
+                items.add(label);
             }
         }
         
@@ -74,9 +87,31 @@ public class RecordedFileListActivity extends Activity implements OnItemClickLis
         listView.setAdapter(items);
         
         listView.setOnItemClickListener(this);
+        listView.setOnItemLongClickListener(this);
         listView.setOnItemSelectedListener(this);
     }
 
+    /**
+     * Gets the label of a recording in the list: its name, followed by its
+     * duration and the distance travelled, if it has a summary.
+     */
+    private static String getLabel(File file) {
+        RecordingSummary summary = RecordingSummary.read(file);
+        if (summary == null) {
+            return file.getName();
+        }
+        
+        long seconds = summary.getDuration()
+                        / (1000 * OrientationRecord.NANOS_PER_MILLI);
+        String label = String.format("%s  %d:%02d", file.getName(),
+                                     seconds / 60, seconds % 60);
+        if (summary.hasLocation()) {
+            label += String.format("  %.2f km", summary.getDistance());
+        }
+        
+        return label;
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -92,12 +127,42 @@ public class RecordedFileListActivity extends Activity implements OnItemClickLis
         super.onResume();
     }
 
+    /**
+     * Replays the recording, or, if others were queued by a long click,
+     * the queued ones followed by this one.
+     */
     @Override
     public void onItemClick(AdapterView<?> adapter, View view, int ix, long l) {
-        selectedFilename = (String) adapter.getItemAtPosition(ix);
+        String filename = fileNames.get(ix);
+        if (!selectedFilenames.contains(filename)) {
+            selectedFilenames.add(filename);
+        }
         bindService(new Intent(this, OrientationRecorderService.class), mConnection, 0);
     }
     
+    /**
+     * Queues the recording for replay, or takes it off the queue if it was
+     * queued already. The queued recordings show their queue position.
+     */
+    @Override
+    public boolean onItemLongClick(AdapterView<?> adapter, View view, int ix, long l) {
+        String filename = fileNames.get(ix);
+        if (!selectedFilenames.remove(filename)) {
+            selectedFilenames.add(filename);
+        }
+        
+        items.setNotifyOnChange(false);
+        items.clear();
+        for (int i = 0; i < fileNames.size(); ++i) {
+            int position = selectedFilenames.indexOf(fileNames.get(i));
+            items.add(position < 0 ? labels.get(i)
+                                   : (position + 1) + ". " + labels.get(i));
+        }
+        items.notifyDataSetChanged();
+        
+        return true;
+    }
+    
     private ServiceConnection mConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
@@ -107,7 +172,7 @@ public class RecordedFileListActivity extends Activity implements OnItemClickLis
                 OrientationRecorderService ors =
                                 binder.getOrientationRecorderService();
 
-                ors.startReplaying(selectedFilename);
+                ors.startReplaying(selectedFilenames);
 
                 unbindService(mConnection);
                 finish();
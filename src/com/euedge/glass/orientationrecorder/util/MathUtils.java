@@ -56,6 +56,41 @@ public class MathUtils {
         return (a % b + b) % b;
     }
 
+    /**
+     * Finds the angle equivalent to {@code end} that is the closest to {@code start}, so that
+     * moving from {@code start} to the result takes the shortest way around the compass, which
+     * may involve crossing 0/360 degrees. For example, the result for 350 and 10 is 370.
+     *
+     * @param start the angle to move from, between 0 and 360 degrees
+     * @param end the angle to move to, between 0 and 360 degrees
+     * @return {@code end}, {@code end + 360} or {@code end - 360}
+     */
+    public static float getClosestEquivalentAngle(float start, float end) {
+        float distance = Math.abs(end - start);
+        float reverseDistance = 360.0f - distance;
+
+        if (distance < reverseDistance) {
+            return end;
+        } else if (end < start) {
+            return end + 360.0f;
+        } else {
+            return end - 360.0f;
+        }
+    }
+
+    /**
+     * Interpolates between two angles, the shortest way around the compass.
+     *
+     * @param start the angle at {@code fraction == 0}, between 0 and 360 degrees
+     * @param end the angle at {@code fraction == 1}, between 0 and 360 degrees
+     * @param fraction the position between the two angles
+     * @return the interpolated angle, in the range 0-360
+     */
+    public static float interpolateAngle(float start, float end, float fraction) {
+        float goal = getClosestEquivalentAngle(start, end);
+        return mod(start + (goal - start) * fraction, 360.0f);
+    }
+
     /**
      * Converts the specified heading angle into an index between 0-15 that can be used to retrieve
      * the direction name for that heading (known as "boxing the compass", down to the half-wind